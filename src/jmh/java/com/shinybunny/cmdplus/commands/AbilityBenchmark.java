@@ -0,0 +1,49 @@
+package com.shinybunny.cmdplus.commands;
+
+import com.mojang.brigadier.StringReader;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.entity.player.PlayerAbilities;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading and writing player abilities the way /ability does: reads through the command result,
+ * writes through assignments parsed once, like <code>/ability @a set</code> applies them to every player.
+ * The speed setters go through a mixin accessor, which is not applied outside the game, so only booleans are written here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AbilityBenchmark {
+
+    private final PlayerAbilities abilities = new PlayerAbilities();
+    private AbilityCommand.Assignment enableFly;
+    private AbilityCommand.Assignment disableFly;
+    private boolean fly;
+
+    @Setup(Level.Trial)
+    public void setup() throws CommandSyntaxException {
+        enableFly = AbilityCommand.Abilities.FLY.parse(new StringReader("true"));
+        disableFly = AbilityCommand.Abilities.FLY.parse(new StringReader("false"));
+    }
+
+    @Benchmark
+    public int getFlySpeedResult() {
+        return AbilityCommand.Abilities.FLY_SPEED.getResult(abilities);
+    }
+
+    @Benchmark
+    public void setFly() {
+        fly = !fly;
+        (fly ? enableFly : disableFly).apply(abilities);
+    }
+
+    @Benchmark
+    public int getFlyResult() {
+        return AbilityCommand.Abilities.FLY.getResult(abilities);
+    }
+}
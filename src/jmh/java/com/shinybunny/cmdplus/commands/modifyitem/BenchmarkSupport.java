@@ -0,0 +1,117 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.context.ParsedArgument;
+import com.mojang.brigadier.context.StringRange;
+import net.minecraft.Bootstrap;
+import net.minecraft.enchantment.Enchantment;
+import net.minecraft.enchantment.Enchantments;
+import net.minecraft.inventory.BasicInventory;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.StringTag;
+import net.minecraft.server.command.CommandOutput;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.LiteralText;
+import net.minecraft.util.math.Vec2f;
+import net.minecraft.util.math.Vec3d;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds synthetic inventories and command contexts for the benchmarks, without a running server.
+ */
+final class BenchmarkSupport {
+
+    private static final Enchantment[] ENCHANTMENTS = {Enchantments.UNBREAKING, Enchantments.MENDING, Enchantments.LOOTING, Enchantments.FIRE_ASPECT, Enchantments.KNOCKBACK};
+
+    /**
+     * A source with no world, server or entity. Its feedback goes nowhere.
+     */
+    static final ServerCommandSource SOURCE = new ServerCommandSource(CommandOutput.DUMMY, Vec3d.ZERO, Vec2f.ZERO, null, 4, "Benchmark", new LiteralText("Benchmark"), null, null);
+
+    private BenchmarkSupport() {
+    }
+
+    static void bootstrap() {
+        Bootstrap.initialize();
+    }
+
+    /**
+     * @param arguments argument names followed by their parsed values
+     * @return a command context holding the given arguments, run by {@link #SOURCE}
+     */
+    static CommandContext<ServerCommandSource> context(Object... arguments) {
+        Map<String, ParsedArgument<ServerCommandSource, ?>> parsed = new HashMap<>();
+        for (int i = 0; i < arguments.length; i += 2) {
+            parsed.put((String) arguments[i], new ParsedArgument<>(0, 0, arguments[i + 1]));
+        }
+        return new CommandContext<>(SOURCE, "", parsed, null, null, Collections.emptyList(), StringRange.at(0), null, null, false);
+    }
+
+    static ModifyExecuteContext executeContext(Object... arguments) {
+        CommandContext<ServerCommandSource> ctx = context(arguments);
+        return new ModifyExecuteContext(new ModifyContext(ModifyItemCommand.InventoryType.BLOCK, ModifyItemCommand.SlotFinderType.SLOT, ctx), ctx);
+    }
+
+    /**
+     * @param nbtComplexity the amount of lore lines, custom tag entries and (up to 5) enchantments on the stack
+     */
+    static ItemStack createStack(int nbtComplexity) {
+        ItemStack stack = new ItemStack(Items.DIAMOND_SWORD);
+        if (nbtComplexity == 0) {
+            return stack;
+        }
+        ListTag lore = new ListTag();
+        CompoundTag data = new CompoundTag();
+        for (int i = 0; i < nbtComplexity; i++) {
+            lore.add(StringTag.of("{\"text\":\"Line " + i + "\"}"));
+            data.putInt("value" + i, i);
+        }
+        stack.getOrCreateSubTag("display").put("Lore", lore);
+        stack.getOrCreateTag().put("BenchmarkData", data);
+        for (int i = 0; i < nbtComplexity && i < ENCHANTMENTS.length; i++) {
+            stack.addEnchantment(ENCHANTMENTS[i], 1);
+        }
+        return stack;
+    }
+
+    static List<BasicInventory> createInventories(int count, int size) {
+        List<BasicInventory> inventories = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            inventories.add(new BasicInventory(size));
+        }
+        return inventories;
+    }
+
+    static List<ModifyItemCommand.InventoryHandle> handles(List<BasicInventory> inventories) {
+        List<ModifyItemCommand.InventoryHandle> handles = new ArrayList<>(inventories.size());
+        for (BasicInventory inv : inventories) {
+            handles.add(ModifyItemCommand.InventoryHandle.normal(inv));
+        }
+        return handles;
+    }
+
+    /**
+     * Fills every slot of the inventories with a copy of the template.
+     * @param distinct whether every copy gets its own damage, so no two slots hold equal stacks and none of them share a memoized result
+     */
+    static void fill(List<BasicInventory> inventories, ItemStack template, boolean distinct) {
+        int n = 0;
+        for (BasicInventory inv : inventories) {
+            for (int i = 0; i < inv.getInvSize(); i++) {
+                ItemStack stack = template.copy();
+                if (distinct) {
+                    stack.setDamage(n++ % stack.getMaxDamage());
+                }
+                inv.setInvStack(i, stack);
+            }
+        }
+    }
+}
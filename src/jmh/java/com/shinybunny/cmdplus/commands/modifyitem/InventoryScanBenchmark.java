@@ -0,0 +1,75 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.shinybunny.cmdplus.commands.ItemSlots;
+import net.minecraft.inventory.BasicInventory;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the slot view of inventories, which every slot finder starts from.
+ * Every other slot is left empty and half of the rest hold a different item.
+ * <p>
+ * Entity inventories need a world to create the entities in, so only block-style inventories are covered here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InventoryScanBenchmark {
+
+    @Param({"64"})
+    public int inventoryCount;
+
+    @Param({"27", "54"})
+    public int inventorySize;
+
+    @Param({"0", "8"})
+    public int nbtComplexity;
+
+    private List<ModifyItemCommand.InventoryHandle> handles;
+    private SlotPattern range;
+
+    @Setup(Level.Trial)
+    public void setup() throws CommandSyntaxException {
+        BenchmarkSupport.bootstrap();
+        List<BasicInventory> inventories = BenchmarkSupport.createInventories(inventoryCount, inventorySize);
+        ItemStack sword = BenchmarkSupport.createStack(nbtComplexity);
+        ItemStack stone = new ItemStack(Items.STONE, 64);
+        for (BasicInventory inv : inventories) {
+            for (int i = 0; i < inv.getInvSize(); i += 2) {
+                inv.setInvStack(i, (i / 2) % 2 == 0 ? sword.copy() : stone.copy());
+            }
+        }
+        handles = BenchmarkSupport.handles(inventories);
+        range = SlotPattern.parse("container.0-26");
+    }
+
+    @Benchmark
+    public int getItems() {
+        int size = 0;
+        for (ModifyItemCommand.InventoryHandle h : handles) {
+            ItemSlots items = h.getItems();
+            size += items.size();
+        }
+        return size;
+    }
+
+    /**
+     * A slot range finder, intersecting the parsed range with the slots of every inventory.
+     */
+    @Benchmark
+    public int findSlotRange() {
+        int size = 0;
+        for (ModifyItemCommand.InventoryHandle h : handles) {
+            size += range.find(h).size();
+        }
+        return size;
+    }
+}
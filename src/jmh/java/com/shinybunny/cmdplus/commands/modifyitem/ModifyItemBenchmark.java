@@ -0,0 +1,116 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.enchantment.Enchantments;
+import net.minecraft.inventory.BasicInventory;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.text.LiteralText;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a compiled plan over every slot of synthetic inventories, the same way a modifyitem execution does.
+ * Each invocation starts from freshly filled inventories.
+ * <p>
+ * With <code>identical</code> stacks, every slot holds an equal stack, so the plan runs once and the other slots reuse its memoized result.
+ * With <code>distinct</code> stacks, every slot differs in damage, so the plan runs for every item.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModifyItemBenchmark {
+
+    @Param({"16"})
+    public int inventoryCount;
+
+    @Param({"27", "54"})
+    public int inventorySize;
+
+    @Param({"0", "8", "32"})
+    public int nbtComplexity;
+
+    @Param({"enchantment_add", "enchantment_set", "lore_add", "damage_set", "nbt_merge", "chain"})
+    public String action;
+
+    @Param({"identical", "distinct"})
+    public String stacks;
+
+    private ItemStack template;
+    private List<BasicInventory> inventories;
+    private List<ModifyItemCommand.InventoryHandle> handles;
+    private ModifyExecuteContext ctx;
+    private ModifyActionType.Plan plan;
+    private ModifyMetrics.Entry metrics;
+
+    @Setup(Level.Trial)
+    public void setup() throws CommandSyntaxException {
+        BenchmarkSupport.bootstrap();
+        template = BenchmarkSupport.createStack(nbtComplexity);
+        inventories = BenchmarkSupport.createInventories(inventoryCount, inventorySize);
+        handles = BenchmarkSupport.handles(inventories);
+        ctx = BenchmarkSupport.executeContext();
+        plan = createPlan(action);
+        metrics = ModifyMetrics.get(action, ModifyItemCommand.InventoryType.BLOCK);
+    }
+
+    static ModifyActionType.Plan createPlan(String action) throws CommandSyntaxException {
+        switch (action) {
+            case "enchantment_add":
+                return ModifyEnchantments.Mode.ADD.compile(BenchmarkSupport.executeContext(arguments(action)));
+            case "enchantment_set":
+                return ModifyEnchantments.Mode.SET.compile(BenchmarkSupport.executeContext(arguments(action)));
+            case "lore_add":
+                return ModifyLore.Mode.ADD.compile(BenchmarkSupport.executeContext(arguments(action)));
+            case "damage_set":
+                return ModifyDamage.Mode.SET.compile(BenchmarkSupport.executeContext(arguments(action)));
+            case "nbt_merge":
+                return ModifyNBT.Mode.MERGE.compile(BenchmarkSupport.executeContext(arguments(action)));
+            case "chain":
+                return ModifyActionType.Plan.chain(Arrays.asList(createPlan("damage_set"), createPlan("enchantment_add"), createPlan("lore_add")));
+            default:
+                throw new IllegalArgumentException("Unknown action " + action);
+        }
+    }
+
+    /**
+     * @return the argument names and values the action is run with, as taken by {@link BenchmarkSupport#context}
+     */
+    static Object[] arguments(String action) {
+        switch (action) {
+            case "enchantment_add":
+                return new Object[]{"enchantment", Enchantments.SHARPNESS, "rank", 2};
+            case "enchantment_set":
+                return new Object[]{"enchantment", Enchantments.UNBREAKING, "rank", 3};
+            case "lore_add":
+                return new Object[]{"text", new LiteralText("Benchmark")};
+            case "damage_set":
+                return new Object[]{"amount", 10};
+            case "nbt_merge":
+                CompoundTag nbt = new CompoundTag();
+                nbt.putBoolean("Unbreakable", true);
+                nbt.putInt("CustomModelData", 7);
+                return new Object[]{"nbt", nbt};
+            default:
+                throw new IllegalArgumentException("Unknown action " + action);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        BenchmarkSupport.fill(inventories, template, stacks.equals("distinct"));
+    }
+
+    @Benchmark
+    public ModifyJob modifyItems() {
+        ModifyJob job = new ModifyJob(ctx, plan, metrics, ModifyItemCommand.InventoryHandle::getItems, handles);
+        job.run(Long.MAX_VALUE);
+        return job;
+    }
+}
@@ -0,0 +1,133 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.shinybunny.cmdplus.commands.ArgumentKey;
+import net.minecraft.command.arguments.ItemEnchantmentArgumentType;
+import net.minecraft.command.arguments.NbtCompoundTagArgumentType;
+import net.minecraft.command.arguments.TextArgumentType;
+import net.minecraft.enchantment.Enchantment;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the once-per-execution cost of compiling a plan with the per-item cost of applying it,
+ * and with the same change preceded by an emulation of the per-item argument lookups that actions did before they were compiled into plans ({@link #modifyOneItemLegacyLookup}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlanCompileBenchmark {
+
+    @Param({"enchantment_add", "lore_add", "damage_set", "nbt_merge"})
+    public String action;
+
+    @Param({"0", "8"})
+    public int nbtComplexity;
+
+    private static final ArgumentKey<Enchantment> ENCHANTMENT = ArgumentKey.make("enchantment",ItemEnchantmentArgumentType::itemEnchantment,ItemEnchantmentArgumentType::getEnchantment);
+    private static final ArgumentKey<Integer> RANK = ArgumentKey.make("rank",()-> IntegerArgumentType.integer(-1),IntegerArgumentType::getInteger);
+    private static final ArgumentKey<Text> TEXT = ArgumentKey.make("text", TextArgumentType::text, TextArgumentType::getTextArgument);
+    private static final ArgumentKey<Integer> INDEX = ArgumentKey.make("index", ()-> IntegerArgumentType.integer(-1), IntegerArgumentType::getInteger);
+    private static final ArgumentKey<Integer> AMOUNT = ArgumentKey.make("amount",()-> IntegerArgumentType.integer(0),IntegerArgumentType::getInteger);
+    private static final ArgumentKey<CompoundTag> NBT = ArgumentKey.make("nbt", NbtCompoundTagArgumentType::nbtCompound, NbtCompoundTagArgumentType::getCompoundTag);
+
+    private ModifyActionType.Plan plan;
+    private ItemStack template;
+    private LegacyArguments legacy;
+
+    @Setup(Level.Trial)
+    public void setup() throws CommandSyntaxException {
+        BenchmarkSupport.bootstrap();
+        plan = ModifyItemBenchmark.createPlan(action);
+        template = BenchmarkSupport.createStack(nbtComplexity);
+        legacy = new LegacyArguments(BenchmarkSupport.context(ModifyItemBenchmark.arguments(action)));
+    }
+
+    @Benchmark
+    public ModifyActionType.Plan compile() throws CommandSyntaxException {
+        return ModifyItemBenchmark.createPlan(action);
+    }
+
+    @Benchmark
+    public ItemStack modifyOneItem() {
+        ItemStack stack = template.copy();
+        plan.modify(stack);
+        return stack;
+    }
+
+    /**
+     * Applies the compiled plan after fetching the mode's arguments through the old argument cache, as every item did before plans.
+     * This adds the emulated lookup cost to the new path. It doesn't run the old per-item code itself.
+     */
+    @Benchmark
+    public ItemStack modifyOneItemLegacyLookup(Blackhole blackhole) {
+        ItemStack stack = template.copy();
+        legacy.fetch(action, blackhole);
+        plan.modify(stack);
+        return stack;
+    }
+
+    /**
+     * The argument cache ModifyExecuteContext had before plans. A null value counted as missing,
+     * so an omitted optional argument (like the lore index) was resolved again, and its exception thrown and caught, for every item.
+     */
+    private static class LegacyArguments {
+        private final CommandContext<ServerCommandSource> cmdCtx;
+        private final Map<ArgumentKey<?>,Object> valueCache = new HashMap<>();
+
+        private LegacyArguments(CommandContext<ServerCommandSource> cmdCtx) {
+            this.cmdCtx = cmdCtx;
+        }
+
+        private <T> T get(ArgumentKey<T> key) {
+            Object t = valueCache.get(key);
+            if (t == null) {
+                t = key.get(cmdCtx);
+                valueCache.put(key, t);
+            }
+            return (T) t;
+        }
+
+        private <T> T get(ArgumentKey<T> key, T def) {
+            T t = get(key);
+            return t == null ? def : t;
+        }
+
+        /**
+         * Fetches the arguments the mode's old <code>modify</code> fetched per item, and consumes each of them.
+         */
+        private void fetch(String action, Blackhole blackhole) {
+            switch (action) {
+                case "enchantment_add":
+                    blackhole.consume(get(ENCHANTMENT));
+                    blackhole.consume(get(RANK,1));
+                    break;
+                case "lore_add":
+                    blackhole.consume(get(TEXT));
+                    blackhole.consume(get(INDEX,-1));
+                    break;
+                case "damage_set":
+                    blackhole.consume(get(AMOUNT));
+                    break;
+                case "nbt_merge":
+                    blackhole.consume(get(NBT));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown action " + action);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.tree.CommandNode;
+import net.minecraft.server.command.ServerCommandSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures registering the modifyitem command, and reports the size of the built tree as the <code>nodes</code> secondary result of {@link #treeSize}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistrationBenchmark {
+
+    /**
+     * Counts every node reachable from the dispatcher root once. Redirect nodes count, their targets are not visited again.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class TreeSize {
+        public long nodes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkSupport.bootstrap();
+    }
+
+    private static int countNodes(CommandNode<ServerCommandSource> node, Set<CommandNode<ServerCommandSource>> visited) {
+        if (!visited.add(node)) {
+            return 0;
+        }
+        int count = 1;
+        for (CommandNode<ServerCommandSource> child : node.getChildren()) {
+            count += countNodes(child, visited);
+        }
+        return count;
+    }
+
+    @Benchmark
+    public CommandDispatcher<ServerCommandSource> register() {
+        CommandDispatcher<ServerCommandSource> dispatcher = new CommandDispatcher<>();
+        ModifyItemCommand.register(dispatcher);
+        return dispatcher;
+    }
+
+    /**
+     * A single cold registration, whose tree is counted. It runs exactly once, since event counters are summed over iterations.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1, batchSize = 1)
+    public CommandDispatcher<ServerCommandSource> treeSize(TreeSize size) {
+        CommandDispatcher<ServerCommandSource> dispatcher = new CommandDispatcher<>();
+        ModifyItemCommand.register(dispatcher);
+        size.nodes = countNodes(dispatcher.getRoot(), Collections.newSetFromMap(new IdentityHashMap<>()));
+        return dispatcher;
+    }
+}
@@ -1,8 +1,12 @@
 package com.shinybunny.cmdplus;
 
 import com.shinybunny.cmdplus.commands.AbilityCommand;
+import com.shinybunny.cmdplus.commands.CommandsPlusCommand;
+import com.shinybunny.cmdplus.commands.modifyitem.DeferredJobs;
 import com.shinybunny.cmdplus.commands.modifyitem.ModifyItemCommand;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.event.server.ServerStopCallback;
+import net.fabricmc.fabric.api.event.server.ServerTickCallback;
 import net.fabricmc.fabric.api.registry.CommandRegistry;
 
 public class CommandsPlus implements ModInitializer {
@@ -12,6 +16,9 @@ public class CommandsPlus implements ModInitializer {
         CommandRegistry.INSTANCE.register(false, dispatcher -> {
             ModifyItemCommand.register(dispatcher);
             AbilityCommand.register(dispatcher);
+            CommandsPlusCommand.register(dispatcher);
         });
+        ServerTickCallback.EVENT.register(DeferredJobs::tick);
+        ServerStopCallback.EVENT.register(DeferredJobs::clear);
     }
 }
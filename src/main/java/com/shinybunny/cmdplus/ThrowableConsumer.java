@@ -1,8 +0,0 @@
-package com.shinybunny.cmdplus;
-
-@FunctionalInterface
-public interface ThrowableConsumer<T,E extends Throwable> {
-
-    void accept(T t) throws E;
-
-}
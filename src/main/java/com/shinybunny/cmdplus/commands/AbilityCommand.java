@@ -1,128 +1,318 @@
 package com.shinybunny.cmdplus.commands;
 
 import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.arguments.ArgumentType;
 import com.mojang.brigadier.arguments.BoolArgumentType;
 import com.mojang.brigadier.arguments.FloatArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.builder.ArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
+import com.mojang.brigadier.suggestion.Suggestions;
+import com.mojang.brigadier.suggestion.SuggestionsBuilder;
+import com.shinybunny.cmdplus.mixin.PlayerAbilitiesAccessor;
 import net.minecraft.command.arguments.EntityArgumentType;
 import net.minecraft.entity.player.PlayerAbilities;
-import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.text.TranslatableText;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.function.BiConsumer;
-import java.util.function.Function;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static net.minecraft.server.command.CommandManager.argument;
 import static net.minecraft.server.command.CommandManager.literal;
 
 public class AbilityCommand {
 
+    private static final DynamicCommandExceptionType UNKNOWN_ABILITY_EXCEPTION = new DynamicCommandExceptionType(name -> {
+        return new TranslatableText("commands.ability.unknown", name);
+    });
+    private static final DynamicCommandExceptionType EXPECTED_VALUE_EXCEPTION = new DynamicCommandExceptionType(name -> {
+        return new TranslatableText("commands.ability.expected_value", name);
+    });
+
     public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
-        ArgumentBuilder<ServerCommandSource,?> builder = argument("target",EntityArgumentType.player());
+        ArgumentBuilder<ServerCommandSource,?> builder = argument("targets",EntityArgumentType.players());
 
-        for (Ability<?> ability : Abilities.VALUES) {
+        for (Ability ability : Abilities.VALUES) {
             builder.then(literal(ability.name).executes(ability::get).then(argument("value",ability.createArgumentType()).executes(ability::set)));
         }
+        builder.then(literal("set").then(argument("abilities",StringArgumentType.greedyString()).suggests(AbilityCommand::suggestAssignments).executes(AbilityCommand::setAll)));
 
         dispatcher.register(literal("ability")
                 .requires(src->src.hasPermissionLevel(2))
                 .then(builder));
     }
 
-    private abstract static class Abilities {
+    /**
+     * Sets several abilities of all targets at once, e.g. <code>/ability @a set fly=false flySpeed=0.05</code>.
+     * All values are parsed before any player is touched, and every player is sent a single abilities update.
+     */
+    private static int setAll(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+        Collection<ServerPlayerEntity> players = EntityArgumentType.getPlayers(ctx,"targets");
+        List<Assignment> assignments = parseAssignments(new StringReader(StringArgumentType.getString(ctx,"abilities")));
+        for (ServerPlayerEntity player : players) {
+            for (Assignment assignment : assignments) {
+                assignment.apply(player.abilities);
+            }
+            player.sendAbilitiesUpdate();
+        }
+        if (players.size() == 1) {
+            ctx.getSource().sendFeedback(new TranslatableText("commands.ability.set.multiple.single",assignments.size(),players.iterator().next().getName()),true);
+        } else {
+            ctx.getSource().sendFeedback(new TranslatableText("commands.ability.set.multiple",assignments.size(),players.size()),true);
+        }
+        return players.size();
+    }
+
+    private static List<Assignment> parseAssignments(StringReader reader) throws CommandSyntaxException {
+        List<Assignment> assignments = new ArrayList<>();
+        while (reader.canRead()) {
+            int start = reader.getCursor();
+            String name = reader.readUnquotedString();
+            Ability ability = Abilities.BY_NAME.get(name);
+            if (ability == null) {
+                reader.setCursor(start);
+                throw UNKNOWN_ABILITY_EXCEPTION.createWithContext(reader,name);
+            }
+            if (!reader.canRead() || reader.peek() != '=') {
+                throw EXPECTED_VALUE_EXCEPTION.createWithContext(reader,name);
+            }
+            reader.skip();
+            assignments.add(ability.parse(reader));
+            reader.skipWhitespace();
+        }
+        return assignments;
+    }
+
+    private static CompletableFuture<Suggestions> suggestAssignments(CommandContext<ServerCommandSource> ctx, SuggestionsBuilder builder) {
+        String input = builder.getRemaining();
+        int last = input.lastIndexOf(' ') + 1;
+        String current = input.substring(last);
+        if (current.contains("=")) {
+            return builder.buildFuture();
+        }
+        SuggestionsBuilder offset = builder.createOffset(builder.getStart() + last);
+        for (Ability ability : Abilities.VALUES) {
+            if (ability.name.startsWith(current)) {
+                offset.suggest(ability.name + "=");
+            }
+        }
+        return offset.buildFuture();
+    }
+
+    abstract static class Abilities {
 
-        public static final List<Ability<?>> VALUES = new ArrayList<>();
+        public static final List<Ability> VALUES = new ArrayList<>();
+        public static final Map<String,Ability> BY_NAME = new HashMap<>();
 
         public static final BoolAbility FLY = new BoolAbility("fly",abilities->abilities.allowFlying,(abilities,b)->abilities.allowFlying = b);
+        public static final BoolAbility FLYING = new BoolAbility("flying",abilities->abilities.flying,(abilities,b)->abilities.flying = b);
         public static final BoolAbility INVULNERABLE = new BoolAbility("invulnerable",abilities->abilities.invulnerable,(abilities,b)->abilities.invulnerable = b);
-        public static final FloatAbility FLY_SPEED = new FloatAbility("flySpeed", PlayerAbilities::getFlySpeed,PlayerAbilities::setFlySpeed);
-        public static final FloatAbility WALK_SPEED = new FloatAbility("walkSpeed",PlayerAbilities::getWalkSpeed, PlayerAbilities::setWalkSpeed);
-
+        public static final BoolAbility MAY_BUILD = new BoolAbility("mayBuild",abilities->abilities.allowModifyWorld,(abilities,b)->abilities.allowModifyWorld = b);
+        public static final BoolAbility CREATIVE_MODE = new BoolAbility("creativeMode",abilities->abilities.creativeMode,(abilities,b)->abilities.creativeMode = b);
+        public static final FloatAbility FLY_SPEED = new FloatAbility("flySpeed",1000,PlayerAbilities::getFlySpeed,(abilities,f)->((PlayerAbilitiesAccessor)abilities).setFlySpeed(f));
+        public static final FloatAbility WALK_SPEED = new FloatAbility("walkSpeed",1000,PlayerAbilities::getWalkSpeed,(abilities,f)->((PlayerAbilitiesAccessor)abilities).setWalkSpeed(f));
 
     }
 
-    private abstract static class Ability<T> {
+    /**
+     * A single ability, read and written through primitive accessors so values are never boxed.
+     */
+    abstract static class Ability {
         private final String name;
-        private Function<PlayerAbilities, T> getter;
-        private final BiConsumer<PlayerAbilities, T> setter;
-
-
 
-        private Ability(String name, Function<PlayerAbilities,T> getter, BiConsumer<PlayerAbilities, T> setter) {
+        private Ability(String name) {
             this.name = name;
-            this.getter = getter;
-            this.setter = setter;
             Abilities.VALUES.add(this);
+            Abilities.BY_NAME.put(name,this);
         }
 
-        public int get(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
-            PlayerEntity player = EntityArgumentType.getPlayer(ctx,"target");
-            T t = getter.apply(player.abilities);
-            ctx.getSource().sendFeedback(new TranslatableText("commands.ability.get",name,player.getName(),t),true);
-            return toInt(t);
-        }
+        /**
+         * @return the value as a command result, scaled to an int so it can be used with <code>execute store</code>
+         */
+        abstract int getResult(PlayerAbilities abilities);
 
-        protected abstract int toInt(T t);
+        /**
+         * @return the value to show in feedback messages
+         */
+        protected abstract Object getDisplayValue(PlayerAbilities abilities);
 
-        protected abstract ArgumentType<T> createArgumentType();
+        protected abstract ArgumentType<?> createArgumentType();
 
-        protected abstract T getArgument(CommandContext<ServerCommandSource> ctx);
+        protected abstract Assignment getArgument(CommandContext<ServerCommandSource> ctx);
+
+        protected abstract Assignment parse(StringReader reader) throws CommandSyntaxException;
+
+        /**
+         * Shows the ability of every target to the source only. Like <code>/data get</code>, a query isn't broadcast to operators.
+         * @return the sum of the results of all targets, e.g. the amount of players that can fly
+         */
+        public int get(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+            int result = 0;
+            for (ServerPlayerEntity player : EntityArgumentType.getPlayers(ctx,"targets")) {
+                ctx.getSource().sendFeedback(new TranslatableText("commands.ability.get",name,player.getName(),getDisplayValue(player.abilities)),false);
+                result += getResult(player.abilities);
+            }
+            return result;
+        }
 
         public int set(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
-            PlayerEntity player = EntityArgumentType.getPlayer(ctx,"target");
-            T value = getArgument(ctx);
-            setter.accept(player.abilities,value);
-            player.sendAbilitiesUpdate();
-            ctx.getSource().sendFeedback(new TranslatableText("commands.ability.set",name,player.getName(),value),true);
-            return 1;
+            Collection<ServerPlayerEntity> players = EntityArgumentType.getPlayers(ctx,"targets");
+            Assignment assignment = getArgument(ctx);
+            for (ServerPlayerEntity player : players) {
+                assignment.apply(player.abilities);
+                player.sendAbilitiesUpdate();
+            }
+            if (players.size() == 1) {
+                ctx.getSource().sendFeedback(new TranslatableText("commands.ability.set",name,players.iterator().next().getName(),assignment.getDisplayValue()),true);
+            } else {
+                ctx.getSource().sendFeedback(new TranslatableText("commands.ability.set.players",name,players.size(),assignment.getDisplayValue()),true);
+            }
+            return players.size();
         }
     }
 
-    private static class FloatAbility extends Ability<Float> {
-        private FloatAbility(String name, Function<PlayerAbilities, Float> getter, BiConsumer<PlayerAbilities, Float> setter) {
-            super(name, getter, setter);
+    /**
+     * A parsed value of an ability, ready to be applied to any amount of players
+     */
+    interface Assignment {
+
+        void apply(PlayerAbilities abilities);
+
+        Object getDisplayValue();
+
+    }
+
+    static class FloatAbility extends Ability {
+        private final FloatGetter getter;
+        private final FloatSetter setter;
+        /**
+         * What the value is multiplied by for the command result, e.g. 1000 turns the default fly speed of 0.05 into 50.
+         */
+        private final float resultScale;
+
+        private FloatAbility(String name, float resultScale, FloatGetter getter, FloatSetter setter) {
+            super(name);
+            this.resultScale = resultScale;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        int getResult(PlayerAbilities abilities) {
+            return Math.round(getter.get(abilities) * resultScale);
         }
 
         @Override
-        protected int toInt(Float aFloat) {
-            return (int)(double)aFloat;
+        protected Object getDisplayValue(PlayerAbilities abilities) {
+            return getter.get(abilities);
         }
 
         @Override
-        public ArgumentType<Float> createArgumentType() {
+        protected ArgumentType<Float> createArgumentType() {
             return FloatArgumentType.floatArg();
         }
 
         @Override
-        protected Float getArgument(CommandContext<ServerCommandSource> ctx) {
-            return FloatArgumentType.getFloat(ctx,"value");
+        protected Assignment getArgument(CommandContext<ServerCommandSource> ctx) {
+            return assign(FloatArgumentType.getFloat(ctx,"value"));
+        }
+
+        @Override
+        protected Assignment parse(StringReader reader) throws CommandSyntaxException {
+            return assign(reader.readFloat());
+        }
+
+        private Assignment assign(float value) {
+            return new Assignment() {
+                @Override
+                public void apply(PlayerAbilities abilities) {
+                    setter.set(abilities,value);
+                }
+
+                @Override
+                public Object getDisplayValue() {
+                    return value;
+                }
+            };
         }
     }
 
-    private static class BoolAbility extends Ability<Boolean> {
-        private BoolAbility(String name, Function<PlayerAbilities, Boolean> getter, BiConsumer<PlayerAbilities, Boolean> setter) {
-            super(name, getter, setter);
+    static class BoolAbility extends Ability {
+        private final BoolGetter getter;
+        private final BoolSetter setter;
+
+        private BoolAbility(String name, BoolGetter getter, BoolSetter setter) {
+            super(name);
+            this.getter = getter;
+            this.setter = setter;
         }
 
         @Override
-        protected int toInt(Boolean aBoolean) {
-            return aBoolean ? 1 : 0;
+        int getResult(PlayerAbilities abilities) {
+            return getter.get(abilities) ? 1 : 0;
         }
 
         @Override
-        public ArgumentType<Boolean> createArgumentType() {
+        protected Object getDisplayValue(PlayerAbilities abilities) {
+            return getter.get(abilities);
+        }
+
+        @Override
+        protected ArgumentType<Boolean> createArgumentType() {
             return BoolArgumentType.bool();
         }
 
         @Override
-        protected Boolean getArgument(CommandContext<ServerCommandSource> ctx) {
-            return BoolArgumentType.getBool(ctx,"value");
+        protected Assignment getArgument(CommandContext<ServerCommandSource> ctx) {
+            return assign(BoolArgumentType.getBool(ctx,"value"));
+        }
+
+        @Override
+        protected Assignment parse(StringReader reader) throws CommandSyntaxException {
+            return assign(reader.readBoolean());
         }
+
+        private Assignment assign(boolean value) {
+            return new Assignment() {
+                @Override
+                public void apply(PlayerAbilities abilities) {
+                    setter.set(abilities,value);
+                }
+
+                @Override
+                public Object getDisplayValue() {
+                    return value;
+                }
+            };
+        }
+    }
+
+    @FunctionalInterface
+    interface FloatGetter {
+        float get(PlayerAbilities abilities);
+    }
+
+    @FunctionalInterface
+    interface FloatSetter {
+        void set(PlayerAbilities abilities, float value);
+    }
+
+    @FunctionalInterface
+    interface BoolGetter {
+        boolean get(PlayerAbilities abilities);
+    }
+
+    @FunctionalInterface
+    interface BoolSetter {
+        void set(PlayerAbilities abilities, boolean value);
     }
 }
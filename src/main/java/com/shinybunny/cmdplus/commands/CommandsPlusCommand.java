@@ -0,0 +1,100 @@
+package com.shinybunny.cmdplus.commands;
+
+import com.google.gson.GsonBuilder;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
+import com.shinybunny.cmdplus.commands.modifyitem.ModifyMetrics;
+import com.shinybunny.cmdplus.commands.modifyitem.UndoJournal;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.TranslatableText;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+
+import static net.minecraft.server.command.CommandManager.argument;
+import static net.minecraft.server.command.CommandManager.literal;
+
+/**
+ * <code>/cmdplus stats [reset|dump]</code> shows, clears or writes to a file the {@link ModifyMetrics} recorded since the server started.
+ * <code>/cmdplus undoLimit [kilobytes]</code> shows or changes the memory limit of the modifyitem {@link UndoJournal}.
+ */
+public class CommandsPlusCommand {
+
+    private static final String STATS_FILE = "cmdplus_stats.json";
+
+    private static final DynamicCommandExceptionType DUMP_FAILED_EXCEPTION = new DynamicCommandExceptionType(msg -> {
+        return new TranslatableText("commands.cmdplus.stats.dump.failed", msg);
+    });
+
+    public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(literal("cmdplus")
+                .requires(src->src.hasPermissionLevel(2))
+                .then(literal("stats")
+                        .executes(CommandsPlusCommand::showStats)
+                        .then(literal("reset").executes(CommandsPlusCommand::resetStats))
+                        .then(literal("dump").executes(CommandsPlusCommand::dumpStats)))
+                .then(literal("undoLimit")
+                        .executes(CommandsPlusCommand::getUndoLimit)
+                        .then(argument("kilobytes",IntegerArgumentType.integer(0)).executes(CommandsPlusCommand::setUndoLimit))));
+    }
+
+    private static int showStats(CommandContext<ServerCommandSource> ctx) {
+        List<ModifyMetrics.Entry> entries = ModifyMetrics.getEntries();
+        if (entries.isEmpty()) {
+            ctx.getSource().sendFeedback(new TranslatableText("commands.cmdplus.stats.empty"),false);
+            return 0;
+        }
+        ctx.getSource().sendFeedback(new TranslatableText("commands.cmdplus.stats.header"),false);
+        for (ModifyMetrics.Entry e : entries) {
+            ctx.getSource().sendFeedback(new TranslatableText("commands.cmdplus.stats.entry",
+                    e.getName(),
+                    e.getExecutions(),
+                    e.getScanned(),
+                    e.getModified(),
+                    e.getErrors(),
+                    String.format(Locale.ROOT,"%.2f",e.getTotalNanos() / 1e6),
+                    String.format(Locale.ROOT,"%.1f",e.getNanosPerItem() / 1e3),
+                    e.getPercentileMicros(0.5),
+                    e.getPercentileMicros(0.99)),false);
+        }
+        return entries.size();
+    }
+
+    private static int resetStats(CommandContext<ServerCommandSource> ctx) {
+        ModifyMetrics.reset();
+        ctx.getSource().sendFeedback(new TranslatableText("commands.cmdplus.stats.reset"),true);
+        return 1;
+    }
+
+    private static int dumpStats(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+        File file = ctx.getSource().getMinecraftServer().getFile(STATS_FILE);
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(ModifyMetrics.toJson(),writer);
+        } catch (IOException e) {
+            throw DUMP_FAILED_EXCEPTION.create(e.getMessage());
+        }
+        ctx.getSource().sendFeedback(new TranslatableText("commands.cmdplus.stats.dump",file.getName()),false);
+        return 1;
+    }
+
+    private static int getUndoLimit(CommandContext<ServerCommandSource> ctx) {
+        int kilobytes = (int) (UndoJournal.getMemoryLimit() / 1024);
+        ctx.getSource().sendFeedback(new TranslatableText("commands.cmdplus.undoLimit.get",kilobytes),false);
+        return kilobytes;
+    }
+
+    private static int setUndoLimit(CommandContext<ServerCommandSource> ctx) {
+        int kilobytes = IntegerArgumentType.getInteger(ctx,"kilobytes");
+        UndoJournal.setMemoryLimit(kilobytes * 1024L);
+        ctx.getSource().sendFeedback(new TranslatableText("commands.cmdplus.undoLimit.set",kilobytes),true);
+        return kilobytes;
+    }
+}
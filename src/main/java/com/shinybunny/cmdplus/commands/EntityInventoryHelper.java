@@ -1,122 +1,257 @@
 package com.shinybunny.cmdplus.commands;
 
-import com.google.common.collect.Iterables;
+import com.shinybunny.cmdplus.mixin.ContainerAccessor;
+import com.shinybunny.cmdplus.mixin.HorseBaseEntityAccessor;
+import net.minecraft.advancement.criterion.Criterions;
 import net.minecraft.block.Blocks;
+import net.minecraft.client.network.packet.InventoryS2CPacket;
+import net.minecraft.container.Container;
 import net.minecraft.entity.Entity;
+import net.minecraft.entity.EquipmentSlot;
 import net.minecraft.entity.LivingEntity;
 import net.minecraft.entity.passive.*;
 import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.inventory.BasicInventory;
 import net.minecraft.item.ItemStack;
-import net.minecraft.nbt.CompoundTag;
-import net.minecraft.nbt.ListTag;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.util.Hand;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.function.Function;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
 
+/**
+ * Reads and writes entity items by their command slot ids (as in <code>/replaceitem entity</code>).
+ * <p>
+ * The slots an entity class has are resolved once into a {@link SlotTable} of slot ranges with direct getters and setters,
+ * so a single slot is dispatched with an array lookup, and {@link #getItem}, {@link #setItem} and {@link #getItems} always agree on which slots exist.
+ */
 public class EntityInventoryHelper {
 
+    private static final EquipmentSlot[] ARMOR_SLOTS = {EquipmentSlot.FEET, EquipmentSlot.LEGS, EquipmentSlot.CHEST, EquipmentSlot.HEAD};
 
-    public static ItemStack getItem(Entity entity, int slot) {
-        if (slot < 9) {
-            return assertEntityType(entity, PlayerEntity.class, (player)->{
-               return player.inventory.getInvStack(slot);
-            });
-        }
-        if (slot < 36) {
-            return assertEntityType(entity, PlayerEntity.class, (player)->{
-                return player.inventory.getInvStack(slot - 9);
-            });
-        }
-        if (slot == 98) {
-            return assertEntityType(entity, LivingEntity.class, LivingEntity::getMainHandStack);
-        }
-        if (slot == 99) {
-            return assertEntityType(entity, LivingEntity.class, LivingEntity::getOffHandStack);
-        }
-        if (slot > 99 && slot < 104) {
-            return assertEntityType(entity, LivingEntity.class, living->{
-                return Iterables.get(living.getArmorItems(),slot - 100);
-            });
-        }
-        if (slot < 227) {
-            return assertEntityType(entity, PlayerEntity.class, (player)->{
-                return player.getEnderChestInventory().getInvStack(slot - 200);
-            });
+    private static final ClassValue<SlotTable> TABLES = new ClassValue<SlotTable>() {
+        @Override
+        protected SlotTable computeValue(Class<?> type) {
+            return SlotTable.build(type);
         }
-        if (slot < 308) {
-            return assertEntityType(entity, AbstractTraderEntity.class, villager->{
-                return villager.getInventory().getInvStack(slot - 300);
-            });
+    };
+
+    /**
+     * @return the item at the given slot of the entity, or null if the entity doesn't have that slot
+     */
+    public static ItemStack getItem(Entity entity, int slot) {
+        SlotRange range = TABLES.get(entity.getClass()).get(slot);
+        if (range == null || slot - range.first >= range.size(entity)) {
+            return null;
         }
-        if (slot == 400) {
-            return assertEntityType(entity, HorseBaseEntity.class, horse->{
-                return ItemStack.fromTag(horse.toTag(new CompoundTag()).getCompound("SaddleItem"));
-            });
+        return range.getter.get(entity,slot - range.first);
+    }
+
+    /**
+     * Sets the item at the given slot of the entity. Slots that aren't in the table of the entity go through {@link Entity#equip(int, ItemStack)}.
+     * @return whether the slot exists for this entity
+     */
+    public static boolean setItem(Entity entity, int slot, ItemStack stack) {
+        SlotRange range = TABLES.get(entity.getClass()).get(slot);
+        if (range == null) {
+            return entity.equip(slot, stack);
         }
-        if (slot == 401) {
-            return assertEntityType(entity, HorseEntity.class, horse->{
-                return ItemStack.fromTag(horse.toTag(new CompoundTag()).getCompound("ArmorItem"));
-            });
+        if (slot - range.first >= range.size(entity)) {
+            return false;
         }
-        if (slot == 499) {
-            return assertEntityType(entity, AbstractDonkeyEntity.class, donkey->{
-                return donkey.hasChest() ? new ItemStack(Blocks.CHEST) : ItemStack.EMPTY;
-            });
+        range.setter.set(entity,slot - range.first,stack);
+        return true;
+    }
+
+    /**
+     * @return the items of all the slots the entity has, except the main hand of players, which is one of their hotbar slots
+     */
+    public static ItemSlots getItems(Entity entity) {
+        SlotTable table = TABLES.get(entity.getClass());
+        ItemSlots items = new ItemSlots(table.lookup.length);
+        for (SlotRange range : table.enumerated) {
+            int size = range.size(entity);
+            for (int i = 0; i < size; i++) {
+                items.put(range.first + i,range.getter.get(entity,i));
+            }
         }
-        if (slot < 515) {
-            return assertEntityType(entity, AbstractDonkeyEntity.class, donkey->{
-                return ItemStack.fromTag(donkey.toTag(new CompoundTag()).getList("Items",10).getCompound(slot - 500));
-            });
+        return items;
+    }
+
+    /**
+     * @return whether the slot is shown in the inventory screen of players. The ender chest slots aren't.
+     */
+    public static boolean isPlayerContainerSlot(int slot) {
+        return slot < 200;
+    }
+
+    /**
+     * Sends the whole inventory of the player in one packet, instead of the packet per changed slot
+     * that the player's container would send on its next {@link Container#sendContentUpdates()}.
+     * If the player has another container open, that container is sent as well, since it shows the inventory too.
+     * <p>
+     * The container's own update would also trigger the <code>inventory_changed</code> criterion, so it is triggered here once instead.
+     */
+    public static void syncInventory(ServerPlayerEntity player) {
+        if (player.networkHandler == null) return;
+        sendContainer(player,player.playerContainer);
+        if (player.container != player.playerContainer) {
+            sendContainer(player,player.container);
         }
-        return null;
+        Criterions.INVENTORY_CHANGED.trigger(player,player.inventory);
     }
 
-    private static <T extends Entity> ItemStack assertEntityType(Entity entity, Class<T> cls, Function<T,ItemStack> func) {
-        if (cls.isInstance(entity)) {
-            return func.apply((T) entity);
+    private static void sendContainer(ServerPlayerEntity player, Container container) {
+        List<ItemStack> stacks = container.getStacks();
+        List<ItemStack> tracked = ((ContainerAccessor) container).getTrackedStacks();
+        // the container would otherwise find every written slot changed and send it again
+        for (int i = 0; i < tracked.size(); i++) {
+            tracked.set(i,stacks.get(i).copy());
         }
-        return null;
+        player.networkHandler.sendPacket(new InventoryS2CPacket(container.syncId,container.getStacks()));
     }
 
-    public static Map<Integer, ItemStack> getItems(Entity entity) {
-        Map<Integer,ItemStack> items = new HashMap<>();
-        if (entity instanceof PlayerEntity) {
-            for (int i = 0; i < 36; i++) {
-                items.put(i,((PlayerEntity) entity).inventory.main.get(i));
+    private static BasicInventory getHorseInventory(Entity horse) {
+        return ((HorseBaseEntityAccessor) horse).getItems();
+    }
+
+    /**
+     * The slot ranges of one entity class.
+     */
+    private static class SlotTable {
+        /**
+         * The range of every slot id, indexed by the slot id
+         */
+        private final SlotRange[] lookup;
+        /**
+         * The ranges {@link #getItems(Entity)} walks, in ascending slot order
+         */
+        private final SlotRange[] enumerated;
+
+        private SlotTable(List<SlotRange> ranges) {
+            int end = 0;
+            List<SlotRange> enumerated = new ArrayList<>();
+            for (SlotRange range : ranges) {
+                end = Math.max(end,range.first + range.maxSize);
+                if (range.enumerated) {
+                    enumerated.add(range);
+                }
             }
-            for (int i = 0; i < 27; i++) {
-                items.put(200 + i,((PlayerEntity) entity).getEnderChestInventory().getInvStack(i));
+            this.lookup = new SlotRange[end];
+            for (SlotRange range : ranges) {
+                for (int i = 0; i < range.maxSize; i++) {
+                    lookup[range.first + i] = range;
+                }
             }
+            this.enumerated = enumerated.toArray(new SlotRange[0]);
         }
-        if (entity instanceof LivingEntity) {
-            if (!(entity instanceof PlayerEntity)) {
-                items.put(98, ((LivingEntity) entity).getMainHandStack());
-                items.put(99, ((LivingEntity) entity).getOffHandStack());
+
+        private SlotRange get(int slot) {
+            return slot >= 0 && slot < lookup.length ? lookup[slot] : null;
+        }
+
+        private static SlotTable build(Class<?> type) {
+            List<SlotRange> ranges = new ArrayList<>();
+            boolean player = PlayerEntity.class.isAssignableFrom(type);
+            if (player) {
+                ranges.add(new SlotRange(0,36,
+                        (e,i)->((PlayerEntity) e).inventory.getInvStack(i),
+                        (e,i,stack)->((PlayerEntity) e).inventory.setInvStack(i,stack)));
             }
-            Iterable<ItemStack> armor = entity.getArmorItems();
-            for (int i = 0; i < 4; i++) {
-                items.put(i + 100,Iterables.get(armor,i));
+            if (LivingEntity.class.isAssignableFrom(type)) {
+                ranges.add(new SlotRange(98,1,
+                        (e,i)->((LivingEntity) e).getMainHandStack(),
+                        (e,i,stack)->((LivingEntity) e).setStackInHand(Hand.MAIN_HAND,stack)).enumerated(!player));
+                ranges.add(new SlotRange(99,1,
+                        (e,i)->((LivingEntity) e).getOffHandStack(),
+                        (e,i,stack)->((LivingEntity) e).setStackInHand(Hand.OFF_HAND,stack)));
+                ranges.add(new SlotRange(100,4,
+                        (e,i)->((LivingEntity) e).getEquippedStack(ARMOR_SLOTS[i]),
+                        (e,i,stack)->((LivingEntity) e).equipStack(ARMOR_SLOTS[i],stack)));
             }
-        }
-        if (entity instanceof AbstractTraderEntity) {
-            for (int i = 0; i < 7; i++) {
-                items.put(i + 300,((AbstractTraderEntity) entity).getInventory().getInvStack(i));
+            if (player) {
+                ranges.add(new SlotRange(200,27,
+                        (e,i)->((PlayerEntity) e).getEnderChestInventory().getInvStack(i),
+                        (e,i,stack)->((PlayerEntity) e).getEnderChestInventory().setInvStack(i,stack)));
+            }
+            if (AbstractTraderEntity.class.isAssignableFrom(type)) {
+                ranges.add(new SlotRange(300,8,
+                        (e,i)->((AbstractTraderEntity) e).getInventory().getInvStack(i),
+                        (e,i,stack)->((AbstractTraderEntity) e).getInventory().setInvStack(i,stack))
+                        .sized(e->((AbstractTraderEntity) e).getInventory().getInvSize()));
+            }
+            if (HorseBaseEntity.class.isAssignableFrom(type)) {
+                ranges.add(new SlotRange(400,1,
+                        (e,i)->getHorseInventory(e).getInvStack(0),
+                        (e,i,stack)->getHorseInventory(e).setInvStack(0,stack)));
             }
+            if (HorseEntity.class.isAssignableFrom(type)) {
+                ranges.add(new SlotRange(401,1,
+                        (e,i)->getHorseInventory(e).getInvStack(1),
+                        (e,i,stack)->getHorseInventory(e).setInvStack(1,stack)));
+            }
+            if (AbstractDonkeyEntity.class.isAssignableFrom(type)) {
+                // the chest itself can only be added or removed as a whole, which equip already handles
+                ranges.add(new SlotRange(499,1,
+                        (e,i)->((AbstractDonkeyEntity) e).hasChest() ? new ItemStack(Blocks.CHEST) : ItemStack.EMPTY,
+                        (e,i,stack)->e.equip(499,stack)));
+                // the chest slots come after the saddle and armor slots of the horse inventory, and only exist while the donkey has a chest
+                ranges.add(new SlotRange(500,15,
+                        (e,i)->getHorseInventory(e).getInvStack(i + 2),
+                        (e,i,stack)->getHorseInventory(e).setInvStack(i + 2,stack))
+                        .sized(e->getHorseInventory(e).getInvSize() - 2));
+            }
+            return new SlotTable(ranges);
         }
-        if (entity instanceof HorseBaseEntity) {
-            items.put(400, getItem(entity,400));
+    }
+
+    /**
+     * Consecutive slot ids that map to consecutive indices of one item source.
+     */
+    private static class SlotRange {
+        private final int first;
+        private final int maxSize;
+        private final SlotGetter getter;
+        private final SlotSetter setter;
+        /**
+         * The amount of slots a specific entity has, if it can be less than {@link #maxSize}
+         */
+        private ToIntFunction<Entity> size;
+        private boolean enumerated = true;
+
+        private SlotRange(int first, int maxSize, SlotGetter getter, SlotSetter setter) {
+            this.first = first;
+            this.maxSize = maxSize;
+            this.getter = getter;
+            this.setter = setter;
         }
-        if (entity instanceof HorseEntity) {
-            items.put(401, getItem(entity, 401));
+
+        private SlotRange sized(ToIntFunction<Entity> size) {
+            this.size = size;
+            return this;
         }
-        if (entity instanceof AbstractDonkeyEntity) {
-            items.put(499, getItem(entity,499));
-            ListTag inv = entity.toTag(new CompoundTag()).getList("Items",10);
-            for (int i = 0; i < 15; i++) {
-                items.put(i + 500, ItemStack.fromTag(inv.getCompound(i)));
-            }
+
+        private SlotRange enumerated(boolean enumerated) {
+            this.enumerated = enumerated;
+            return this;
         }
-        return items;
+
+        private int size(Entity entity) {
+            return size == null ? maxSize : Math.max(0,Math.min(maxSize,size.applyAsInt(entity)));
+        }
+    }
+
+    @FunctionalInterface
+    private interface SlotGetter {
+        /**
+         * @param index the index of the slot within its range
+         */
+        ItemStack get(Entity entity, int index);
+    }
+
+    @FunctionalInterface
+    private interface SlotSetter {
+        void set(Entity entity, int index, ItemStack stack);
     }
 }
@@ -0,0 +1,112 @@
+package com.shinybunny.cmdplus.commands;
+
+import net.minecraft.item.ItemStack;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A slot-indexed view of the items of an inventory, backed by a dense array and a bitset of the occupied slots.
+ * Slots are always iterated in ascending order, without boxing the slot index:
+ * <pre>
+ * for (int slot = items.firstSlot(); slot >= 0; slot = items.nextSlot(slot)) {
+ *     ItemStack stack = items.get(slot);
+ * }
+ * </pre>
+ */
+public class ItemSlots {
+
+    private static final ItemSlots EMPTY = new ItemSlots(0);
+
+    private ItemStack[] stacks;
+    private final BitSet slots = new BitSet();
+
+    public ItemSlots() {
+        this(16);
+    }
+
+    public ItemSlots(int capacity) {
+        this.stacks = new ItemStack[capacity];
+    }
+
+    /**
+     * The shared empty view. It must not be modified.
+     */
+    public static ItemSlots empty() {
+        return EMPTY;
+    }
+
+    public static ItemSlots singleton(int slot, ItemStack stack) {
+        if (stack == null) {
+            return EMPTY;
+        }
+        ItemSlots items = new ItemSlots(slot + 1);
+        items.put(slot,stack);
+        return items;
+    }
+
+    public void put(int slot, ItemStack stack) {
+        if (stack == null) return;
+        if (slot >= stacks.length) {
+            stacks = Arrays.copyOf(stacks, Math.max(slot + 1, stacks.length * 2));
+        }
+        stacks[slot] = stack;
+        slots.set(slot);
+    }
+
+    public ItemStack get(int slot) {
+        return contains(slot) ? stacks[slot] : null;
+    }
+
+    public boolean contains(int slot) {
+        return slot >= 0 && slot < stacks.length && slots.get(slot);
+    }
+
+    public int size() {
+        return slots.cardinality();
+    }
+
+    public boolean isEmpty() {
+        return slots.isEmpty();
+    }
+
+    /**
+     * @return the lowest occupied slot, or -1 if there are none
+     */
+    public int firstSlot() {
+        return slots.nextSetBit(0);
+    }
+
+    /**
+     * @return the lowest occupied slot after the given slot, or -1 if there are none
+     */
+    public int nextSlot(int slot) {
+        return slots.nextSetBit(slot + 1);
+    }
+
+    /**
+     * @return a new view of the occupied slots that are also in the mask
+     */
+    public ItemSlots retain(BitSet mask) {
+        BitSet kept = (BitSet) slots.clone();
+        kept.and(mask);
+        ItemSlots items = new ItemSlots(kept.length());
+        for (int slot = kept.nextSetBit(0); slot >= 0; slot = kept.nextSetBit(slot + 1)) {
+            items.put(slot,stacks[slot]);
+        }
+        return items;
+    }
+
+    public void forEach(SlotConsumer consumer) {
+        for (int slot = firstSlot(); slot >= 0; slot = nextSlot(slot)) {
+            consumer.accept(slot,stacks[slot]);
+        }
+    }
+
+    @FunctionalInterface
+    public interface SlotConsumer {
+
+        void accept(int slot, ItemStack stack);
+
+    }
+}
@@ -0,0 +1,115 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import com.mojang.brigadier.Command;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.tree.CommandNode;
+import net.minecraft.server.command.ServerCommandSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static net.minecraft.server.command.CommandManager.literal;
+
+/**
+ * The command of a single action mode in the modifyitem tree.
+ * <p>
+ * Actions can be chained with <code>and</code>, e.g. <code>... damage set 0 and lore add "Repaired"</code>.
+ * Every action before an <code>and</code> only compiles its plan and hands it over to the next one, and the last action runs all the plans in order
+ * in a single pass over the items, so each slot is copied and written back only once.
+ */
+public class ActionCommand implements Command<ServerCommandSource> {
+
+    private final ModifyActionType<?> actionType;
+    private final ModifyActionType.ActionMode mode;
+
+    public ActionCommand(ModifyActionType<?> actionType, ModifyActionType.ActionMode mode) {
+        this.actionType = actionType;
+        this.mode = mode;
+    }
+
+    /**
+     * Adds an <code>and</code> redirect to the chain target after every executable node of the built action.
+     */
+    public static void addChaining(CommandNode<ServerCommandSource> node, CommandNode<ServerCommandSource> chainTarget) {
+        for (CommandNode<ServerCommandSource> child : node.getChildren()) {
+            addChaining(child,chainTarget);
+        }
+        if (node.getCommand() instanceof ActionCommand) {
+            ActionCommand cmd = (ActionCommand) node.getCommand();
+            node.addChild(literal("and").redirect(chainTarget,cmd::chain).build());
+        }
+    }
+
+    @Override
+    public int run(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+        Chain chain = takeChain(ctx.getSource());
+        ModifyExecuteContext executeCtx = createContext(ctx);
+        ModifyActionType.Plan plan = compile(executeCtx);
+        if (chain == null) {
+            return ModifyActionType.forEachItem(executeCtx,plan,getName());
+        }
+        chain.plans.add(plan);
+        return ModifyActionType.forEachItem(chain.context,ModifyActionType.Plan.chain(chain.plans),chain.name + "+" + getName());
+    }
+
+    private ServerCommandSource chain(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+        Chain chain = takeChain(ctx.getSource());
+        ModifyExecuteContext executeCtx = createContext(ctx);
+        if (chain == null) {
+            chain = new Chain(executeCtx);
+        }
+        chain.plans.add(compile(executeCtx));
+        chain.name = chain.name == null ? getName() : chain.name + "+" + getName();
+        ServerCommandSource next = ModifyOptions.copySource(ctx.getSource());
+        // the chained actions are parsed after the selection, so they are handed the selection of the first action
+        ModifySource.of(next).setModifySelection(chain.context);
+        ModifySource.of(next).setPendingChain(chain);
+        return next;
+    }
+
+    /**
+     * @return the chain the source was handed over with, or null. The chain is taken off the source, so it is only ever continued once.
+     */
+    private static Chain takeChain(ServerCommandSource source) {
+        Chain chain = ModifySource.of(source).getPendingChain();
+        ModifySource.of(source).setPendingChain(null);
+        return chain;
+    }
+
+    /**
+     * @return the action and mode of this command, e.g. <code>enchantment add</code>
+     */
+    private String getName() {
+        return actionType.getName() + " " + mode.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private ModifyExecuteContext createContext(CommandContext<ServerCommandSource> ctx) {
+        return new ModifyExecuteContext(ModifyContext.get(ctx),ctx);
+    }
+
+    private ModifyActionType.Plan compile(ModifyExecuteContext executeCtx) throws CommandSyntaxException {
+        actionType.addArguments(executeCtx);
+        return mode.compile(executeCtx);
+    }
+
+    /**
+     * The actions of a chain that is still being built, carried by the source passed on to the next action in the chain.
+     */
+    public static class Chain {
+        /**
+         * The context of the first action, which holds the inventory and slot finder arguments
+         */
+        private final ModifyExecuteContext context;
+        private final List<ModifyActionType.Plan> plans = new ArrayList<>();
+        /**
+         * The names of the chained actions so far, joined with <code>+</code>
+         */
+        private String name;
+
+        private Chain(ModifyExecuteContext context) {
+            this.context = context;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import net.minecraft.server.MinecraftServer;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Runs deferred modify jobs one after the other, giving the current job its own time budget every tick.
+ */
+public class DeferredJobs {
+
+    private static final Queue<ModifyJob> JOBS = new ArrayDeque<>();
+
+    public static void schedule(ModifyJob job) {
+        JOBS.add(job);
+    }
+
+    public static void tick(MinecraftServer server) {
+        ModifyJob job = JOBS.peek();
+        if (job == null) return;
+        if (job.run(System.nanoTime() + job.getTickBudgetNanos())) {
+            JOBS.poll();
+            job.finish();
+        }
+    }
+
+    /**
+     * Drops all jobs without running or reporting them, so jobs of a stopped server never run against the next one.
+     */
+    public static void clear(MinecraftServer server) {
+        JOBS.clear();
+    }
+}
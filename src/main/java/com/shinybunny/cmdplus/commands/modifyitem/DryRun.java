@@ -0,0 +1,69 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import com.shinybunny.cmdplus.commands.ItemSlots;
+import net.minecraft.text.Text;
+import net.minecraft.text.TranslatableText;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Matches the items of a modifyitem command without copying or writing any of them,
+ * and estimates how long the real run would take from the {@link ModifyMetrics} of earlier runs of the same action on the same inventory type.
+ * Chains that never ran in exactly the same order are estimated from the sum of their single actions.
+ */
+public class DryRun {
+
+    private static final long TICK_NANOS = 50_000_000L;
+
+    /**
+     * @param action the name of the action and mode, or several of them joined with <code>+</code> for chains
+     * @return the amount of matched items
+     */
+    public static int report(ModifyExecuteContext ctx, ModifyItemCommand.SlotFinder finder, List<ModifyItemCommand.InventoryHandle> inventories, String action) {
+        long start = System.nanoTime();
+        int slots = 0;
+        int items = 0;
+        for (ModifyItemCommand.InventoryHandle h : inventories) {
+            if (!h.isValid()) continue;
+            ItemSlots found = finder.findItems(h);
+            for (int slot = found.firstSlot(); slot >= 0; slot = found.nextSlot(slot)) {
+                slots++;
+                if (!found.get(slot).isEmpty()) {
+                    items++;
+                }
+            }
+        }
+        long matchNanos = System.nanoTime() - start;
+        // nothing changed, so this is never broadcast
+        ctx.getCmdCtx().getSource().sendFeedback(new TranslatableText("commands.modifyitem.dryrun.matched",inventories.size(),slots,items,formatMillis(matchNanos)),false);
+        ctx.getCmdCtx().getSource().sendFeedback(estimate(action,ctx.getInventoryType(),items),false);
+        return items;
+    }
+
+    private static Text estimate(String action, ModifyItemCommand.InventoryType inventoryType, int items) {
+        ModifyMetrics.Entry exact = ModifyMetrics.find(action,inventoryType);
+        if (exact != null && exact.getScanned() > 0) {
+            return estimate(exact.getNanosPerItem() * items,exact.getName(),exact.getScanned());
+        }
+        double nanosPerItem = 0;
+        long scanned = Long.MAX_VALUE;
+        for (String part : action.split("\\+")) {
+            ModifyMetrics.Entry metrics = ModifyMetrics.find(part,inventoryType);
+            if (metrics == null || metrics.getScanned() == 0) {
+                return new TranslatableText("commands.modifyitem.dryrun.no_estimate",ModifyMetrics.getName(part,inventoryType));
+            }
+            nanosPerItem += metrics.getNanosPerItem();
+            scanned = Math.min(scanned,metrics.getScanned());
+        }
+        return estimate(nanosPerItem * items,ModifyMetrics.getName(action,inventoryType),scanned);
+    }
+
+    private static Text estimate(double nanos, String name, long scanned) {
+        return new TranslatableText("commands.modifyitem.dryrun.estimate",formatMillis(nanos),String.format(Locale.ROOT,"%.0f%%",nanos * 100 / TICK_NANOS),name,scanned);
+    }
+
+    private static String formatMillis(double nanos) {
+        return String.format(Locale.ROOT,"%.2f",nanos / 1e6);
+    }
+}
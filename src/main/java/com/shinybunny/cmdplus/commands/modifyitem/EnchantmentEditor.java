@@ -0,0 +1,113 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import net.minecraft.enchantment.Enchantment;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.registry.Registry;
+
+/**
+ * Edits the level of one enchantment directly in the <code>Enchantments</code> (or <code>StoredEnchantments</code> for enchanted books) list of an item.
+ * The enchantment id is resolved once, and other entries of the list are never touched or re-serialized.
+ */
+public class EnchantmentEditor {
+
+    private final String id;
+    /**
+     * The id without the namespace, if the enchantment is in the minecraft namespace, since vanilla also accepts those.
+     */
+    private final String shortId;
+
+    public EnchantmentEditor(Enchantment enchantment) {
+        Identifier identifier = Registry.ENCHANTMENT.getId(enchantment);
+        this.id = identifier.toString();
+        this.shortId = identifier.getNamespace().equals("minecraft") ? identifier.getPath() : null;
+    }
+
+    public static String getListName(ItemStack item) {
+        return item.getItem() == Items.ENCHANTED_BOOK ? "StoredEnchantments" : "Enchantments";
+    }
+
+    /**
+     * @return the level of the enchantment on the item, or 0 if it doesn't have it
+     */
+    public int getLevel(ItemStack item) {
+        ListTag list = getList(item);
+        int index = indexOf(list);
+        return index == -1 ? 0 : list.getCompound(index).getInt("lvl");
+    }
+
+    /**
+     * Changes the level of the existing entry in place, or appends a new entry if the item doesn't have the enchantment yet.
+     */
+    public void setLevel(ItemStack item, int level) {
+        ListTag list = getList(item);
+        int index = indexOf(list);
+        if (index != -1) {
+            list.getCompound(index).putShort("lvl",(short)level);
+            return;
+        }
+        CompoundTag entry = new CompoundTag();
+        entry.putString("id",id);
+        entry.putShort("lvl",(short)level);
+        if (list == null) {
+            list = new ListTag();
+            item.getOrCreateTag().put(getListName(item),list);
+        }
+        list.add(entry);
+    }
+
+    /**
+     * Removes the entry of the enchantment, and the whole list if it was the last one.
+     * @return whether the item had the enchantment
+     */
+    public boolean remove(ItemStack item) {
+        ListTag list = getList(item);
+        int index = indexOf(list);
+        if (index == -1) {
+            return false;
+        }
+        list.method_10536(index);
+        if (list.isEmpty()) {
+            item.removeSubTag(getListName(item));
+        }
+        return true;
+    }
+
+    /**
+     * Removes all enchantments from the item.
+     * @return whether the item had any enchantments
+     */
+    public static boolean clear(ItemStack item) {
+        ListTag list = getList(item);
+        if (list == null || list.isEmpty()) {
+            return false;
+        }
+        item.removeSubTag(getListName(item));
+        return true;
+    }
+
+    private static ListTag getList(ItemStack item) {
+        CompoundTag tag = item.getTag();
+        String name = getListName(item);
+        if (tag == null || !tag.contains(name,9)) {
+            return null;
+        }
+        return tag.getList(name,10);
+    }
+
+    private int indexOf(ListTag list) {
+        if (list == null) {
+            return -1;
+        }
+        for (int i = 0; i < list.size(); i++) {
+            String entryId = list.getCompound(i).getString("id");
+            if (entryId.equals(id) || entryId.equals(shortId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,97 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import net.minecraft.item.ItemStack;
+import net.minecraft.text.LiteralText;
+import net.minecraft.text.Text;
+import net.minecraft.text.TranslatableText;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the errors of the items of one execution, so they are reported in a single message instead of one per item.
+ * Skipped items are grouped by their outcome, and exceptions by their class.
+ */
+public class ErrorSummary {
+
+    private static final int MAX_SAMPLES = 3;
+
+    private final Map<Object, Kind> kinds = new LinkedHashMap<>();
+    private int count;
+
+    /**
+     * Adds an item the plan skipped.
+     */
+    public void skip(ModifyItemCommand.InventoryHandle inventory, int slot, ItemStack item, ModifyActionType.Outcome outcome) {
+        Kind kind = kinds.get(outcome);
+        if (kind == null) {
+            kind = new Kind(outcome.describe(item));
+            kinds.put(outcome,kind);
+        }
+        kind.add(inventory,slot);
+        count++;
+    }
+
+    /**
+     * Adds an item the plan failed on with an exception.
+     */
+    public void add(ModifyItemCommand.InventoryHandle inventory, int slot, Exception ex) {
+        Kind kind = kinds.get(ex.getClass());
+        if (kind == null) {
+            kind = new Kind(new LiteralText(String.valueOf(ex.getMessage())));
+            kinds.put(ex.getClass(),kind);
+            // only the first exception of each kind gets a stack trace
+            ex.printStackTrace();
+        }
+        kind.add(inventory,slot);
+        count++;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Sends all collected errors to the source in one message, if there are any.
+     */
+    public void report(ModifyExecuteContext ctx) {
+        if (count == 0) return;
+        Text text = new TranslatableText("commands.modifyitem.failed.summary",count);
+        for (Kind kind : kinds.values()) {
+            Text samples = new LiteralText("");
+            for (int i = 0; i < kind.samples.size(); i++) {
+                if (i > 0) {
+                    samples.append(", ");
+                }
+                samples.append(kind.samples.get(i));
+            }
+            text.append("\n").append(new TranslatableText("commands.modifyitem.failed.summary.kind",kind.count,kind.sample,samples));
+        }
+        ctx.sendError(text);
+    }
+
+    private static class Kind {
+        /**
+         * The message of the first error of this kind
+         */
+        private final Text sample;
+        /**
+         * The first slots with an error of this kind, each with the inventory it is in
+         */
+        private final List<Text> samples = new ArrayList<>(MAX_SAMPLES);
+        private int count;
+
+        private Kind(Text sample) {
+            this.sample = sample;
+        }
+
+        private void add(ModifyItemCommand.InventoryHandle inventory, int slot) {
+            count++;
+            if (samples.size() < MAX_SAMPLES) {
+                samples.add(new TranslatableText("commands.modifyitem.failed.summary.slot",inventory.getName(),slot));
+            }
+        }
+    }
+}
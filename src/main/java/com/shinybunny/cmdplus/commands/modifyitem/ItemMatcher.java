@@ -0,0 +1,76 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import com.mojang.brigadier.StringReader;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.context.ParsedCommandNode;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.tree.ArgumentCommandNode;
+import net.minecraft.command.arguments.ItemPredicateArgumentType;
+import net.minecraft.command.arguments.ItemStringReader;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.tag.ItemTags;
+import net.minecraft.tag.Tag;
+
+import java.util.function.Predicate;
+
+/**
+ * An item predicate argument compiled into a cheap item or tag check, so the full predicate and its NBT matching
+ * only run on stacks that already hold the right item.
+ */
+public class ItemMatcher {
+
+    private final Predicate<ItemStack> predicate;
+    private final Item item;
+    private final Tag<Item> tag;
+    /**
+     * Whether the predicate has anything to check beyond the item or tag, which means it still has to run after the prefilter passes
+     */
+    private final boolean needsPredicate;
+
+    private ItemMatcher(Predicate<ItemStack> predicate, Item item, Tag<Item> tag, boolean needsPredicate) {
+        this.predicate = predicate;
+        this.item = item;
+        this.tag = tag;
+        this.needsPredicate = needsPredicate;
+    }
+
+    public static ItemMatcher compile(CommandContext<ServerCommandSource> ctx, String name) throws CommandSyntaxException {
+        Predicate<ItemStack> predicate = ItemPredicateArgumentType.getItemPredicate(ctx,name);
+        String input = getArgumentInput(ctx,name);
+        if (input == null) {
+            return new ItemMatcher(predicate,null,null,true);
+        }
+        ItemStringReader reader = new ItemStringReader(new StringReader(input),true).consume();
+        Tag<Item> tag = reader.getId() == null ? null : ItemTags.getContainer().get(reader.getId());
+        if (reader.getItem() == null && tag == null) {
+            return new ItemMatcher(predicate,null,null,true);
+        }
+        return new ItemMatcher(predicate,reader.getItem(),tag,reader.getTag() != null);
+    }
+
+    /**
+     * @return the text the argument was parsed from, or null if the context has no such argument
+     */
+    static String getArgumentInput(CommandContext<ServerCommandSource> ctx, String name) {
+        for (ParsedCommandNode<ServerCommandSource> node : ctx.getNodes()) {
+            if (node.getNode() instanceof ArgumentCommandNode && node.getNode().getName().equals(name)) {
+                return node.getRange().get(ctx.getInput());
+            }
+        }
+        return null;
+    }
+
+    public boolean test(ItemStack stack) {
+        if (stack.isEmpty()) {
+            return false;
+        }
+        if (item != null) {
+            if (stack.getItem() != item) return false;
+        } else if (tag != null) {
+            if (!tag.contains(stack.getItem())) return false;
+        }
+        return !needsPredicate || predicate.test(stack);
+    }
+}
@@ -3,9 +3,8 @@ package com.shinybunny.cmdplus.commands.modifyitem;
 import com.mojang.brigadier.Command;
 import com.mojang.brigadier.builder.ArgumentBuilder;
 import com.mojang.brigadier.builder.RequiredArgumentBuilder;
-import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
-import com.shinybunny.cmdplus.ThrowableConsumer;
+import com.mojang.brigadier.tree.CommandNode;
 import com.shinybunny.cmdplus.commands.ArgumentKey;
 import net.minecraft.item.ItemStack;
 import net.minecraft.server.command.CommandManager;
@@ -15,15 +14,22 @@ import net.minecraft.text.Text;
 import net.minecraft.text.TranslatableText;
 
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
 
 import static net.minecraft.server.command.CommandManager.literal;
 
 public interface ModifyActionType<M extends ModifyActionType.ActionMode> {
 
-    default ArgumentBuilder<ServerCommandSource,?> build(ModifyContext ctx) {
+    /**
+     * Builds the literal of this action with all of its modes.
+     * @param chainTarget the node an <code>and</code> after any of the modes redirects to, to chain another action
+     */
+    default CommandNode<ServerCommandSource> build(CommandNode<ServerCommandSource> chainTarget) {
         ArgumentBuilder<ServerCommandSource,?> builder = literal(getName());
         for (M m : getModes()) {
-            Command<ServerCommandSource> cmd = c->execute(c,m,ctx);
+            Command<ServerCommandSource> cmd = new ActionCommand(this,m);
             ArgumentBuilder<ServerCommandSource,?> name = literal(m.toString().toLowerCase(Locale.ROOT));
             ArgumentBuilder<ServerCommandSource,?> args = m.buildArguments(cmd);
             if (args == null) {
@@ -32,7 +38,9 @@ public interface ModifyActionType<M extends ModifyActionType.ActionMode> {
                 builder.then(name.then(args));
             }
         }
-        return builder;
+        CommandNode<ServerCommandSource> node = builder.build();
+        ActionCommand.addChaining(node,chainTarget);
+        return node;
     }
 
     String getName();
@@ -43,51 +51,27 @@ public interface ModifyActionType<M extends ModifyActionType.ActionMode> {
 
     }
 
-    default int execute(CommandContext<ServerCommandSource> ctx, ActionMode mode, ModifyContext modifyContext) throws CommandSyntaxException {
-        ModifyExecuteContext executeCtx = new ModifyExecuteContext(modifyContext.getInventoryType(),modifyContext.getFinderType(),ctx);
-        addArguments(executeCtx);
-        mode.validate(executeCtx);
-        return forEachItem(executeCtx,mode);
-    }
-
-    static int forEachItem(ModifyExecuteContext ctx, ActionMode mode) throws CommandSyntaxException {
-        int i = 0;
-        try {
-            List<ModifyItemCommand.InventoryHandle> inventories = ctx.getInventoryType().getInventories(ctx.getCmdCtx());
-
-            for (ModifyItemCommand.InventoryHandle h : inventories) {
-                Map<Integer, ItemStack> items = ctx.getFinderType().findItems(h, ctx.getCmdCtx());
-                Map<Integer, ItemStack> changes = new HashMap<>();
-                for (Map.Entry<Integer, ItemStack> e : items.entrySet()) {
-                    if (e.getValue().isEmpty()) continue;
-                    System.out.println("modifying item at slot " + e.getKey());
-                    ItemStack stack = e.getValue().copy();
-                    try {
-                        mode.modify(ctx,stack);
-                        changes.put(e.getKey(), stack);
-                    } catch (RemoveItem re) {
-                        changes.put(e.getKey(), ItemStack.EMPTY);
-                    } catch (Exception ex) {
-                        ctx.sendError(new LiteralText(ex.getMessage()));
-                        ex.printStackTrace();
-                        continue;
-                    }
-
-                    i++;
-                }
-                changes.forEach(h::setItem);
-            }
-        } catch (Throwable t) {
-            t.printStackTrace();
-            ctx.sendError(new LiteralText("internal error"));
-            return 0;
+    /**
+     * @param action the name of the action and mode the plan was compiled from, which the execution is recorded under in the {@link ModifyMetrics}
+     */
+    static int forEachItem(ModifyExecuteContext ctx, Plan plan, String action) throws CommandSyntaxException {
+        List<ModifyItemCommand.InventoryHandle> inventories = ctx.getInventoryType().getInventories(ctx.getSelectionCtx());
+        ModifyItemCommand.SlotFinder finder = ctx.getFinderType().compile(ctx.getSelectionCtx());
+        if (ctx.getOptions().isDryRun()) {
+            return DryRun.report(ctx,finder,inventories,action);
+        }
+        ModifyMetrics.Entry metrics = ModifyMetrics.get(action,ctx.getInventoryType());
+        if (ctx.getOptions().isParallel()) {
+            return new ParallelModifyJob(ctx,plan,metrics).start(finder,inventories);
         }
-        if (i == 0) {
-            ctx.sendError(new TranslatableText("commands.modifyitem.failed.no_items"));
-        } else {
-            ctx.sendFeedback(mode.getSuccessMessage(ctx,i));
+        ModifyJob job = new ModifyJob(ctx,plan,metrics,finder,inventories);
+        if (ctx.getOptions().isDeferred()) {
+            DeferredJobs.schedule(job);
+            ctx.sendFeedback(new TranslatableText("commands.modifyitem.deferred.scheduled",job.getInventoryCount()));
+            return job.getInventoryCount();
         }
-        return i;
+        job.run(Long.MAX_VALUE);
+        return job.finish();
     }
 
     interface ActionMode {
@@ -102,15 +86,142 @@ public interface ModifyActionType<M extends ModifyActionType.ActionMode> {
 
         ArgumentBuilder<ServerCommandSource,?> buildArguments(Command<ServerCommandSource> execute);
 
-        void modify(ModifyExecuteContext ctx, ItemStack item) throws Exception;
+        /**
+         * Reads and validates the arguments of this mode, once per execution.
+         * @return the plan that will be applied to every matching item
+         */
+        Plan compile(ModifyExecuteContext ctx) throws CommandSyntaxException;
+    }
+
+    /**
+     * An immutable modification compiled from the command arguments. It must not look up any arguments itself.
+     * <p>
+     * The result may only depend on the item and its nbt, not on the count, since results are reused for equal stacks (see {@link PlanMemo}).
+     */
+    interface Plan {
+
+        /**
+         * @return a plan that applies all the given plans one after the other to each item
+         */
+        static Plan chain(List<Plan> plans) {
+            return new Plan() {
+                @Override
+                public Outcome modify(ItemStack item) {
+                    Outcome result = Outcome.UNCHANGED;
+                    for (Plan plan : plans) {
+                        Outcome outcome = plan.modify(item);
+                        if (outcome == Outcome.MODIFIED) {
+                            result = outcome;
+                        } else if (outcome != Outcome.UNCHANGED) {
+                            // a removed or skipped item ends the chain
+                            return outcome;
+                        }
+                    }
+                    return result;
+                }
+
+                /**
+                 * If no plan changes the original item, each of them sees it unchanged, so none of them changes it in the chain either.
+                 */
+                @Override
+                public boolean wouldChange(ItemStack item) {
+                    for (Plan plan : plans) {
+                        if (plan.wouldChange(item)) return true;
+                    }
+                    return false;
+                }
+
+                @Override
+                public Text getSuccessMessage(int itemCount) {
+                    Text text = new LiteralText("");
+                    for (int i = 0; i < plans.size(); i++) {
+                        if (i > 0) {
+                            text.append("\n");
+                        }
+                        text.append(plans.get(i).getSuccessMessage(itemCount));
+                    }
+                    return text;
+                }
+            };
+        }
+
+        static Plan of(Function<ItemStack,Outcome> modifier, IntFunction<Text> successMessage) {
+            return of(item->true,modifier,successMessage);
+        }
 
-        Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount);
+        /**
+         * @param wouldChange see {@link #wouldChange(ItemStack)}
+         */
+        static Plan of(Predicate<ItemStack> wouldChange, Function<ItemStack,Outcome> modifier, IntFunction<Text> successMessage) {
+            return new Plan() {
+                @Override
+                public boolean wouldChange(ItemStack item) {
+                    return wouldChange.test(item);
+                }
 
-        default void validate(ModifyExecuteContext ctx) throws CommandSyntaxException {
+                @Override
+                public Outcome modify(ItemStack item) {
+                    return modifier.apply(item);
+                }
 
+                @Override
+                public Text getSuccessMessage(int itemCount) {
+                    return successMessage.apply(itemCount);
+                }
+            };
         }
+
+        /**
+         * Modifies the given stack in place. Items the plan doesn't apply to are skipped by returning a {@link Outcome#skip(Function) skip} outcome,
+         * and exceptions are only thrown for actual errors.
+         */
+        Outcome modify(ItemStack item);
+
+        /**
+         * Checks, without copying or modifying the item, whether {@link #modify(ItemStack)} could do anything but return {@link Outcome#UNCHANGED} for it.
+         * Items this returns false for are never copied. Plans that can't tell cheaply return true, and so do plans that would skip the item,
+         * since skipped items still have to be reported.
+         */
+        default boolean wouldChange(ItemStack item) {
+            return true;
+        }
+
+        Text getSuccessMessage(int itemCount);
     }
 
-    class RemoveItem extends Exception {
+    /**
+     * What a plan did to an item. Outcomes are shared and compared by identity, so plans should create their skip outcomes once when they are compiled,
+     * and never per item.
+     */
+    final class Outcome {
+
+        public static final Outcome MODIFIED = new Outcome(null);
+        public static final Outcome UNCHANGED = new Outcome(null);
+        /**
+         * The item should be removed from its slot
+         */
+        public static final Outcome REMOVE = new Outcome(null);
+
+        private final Function<ItemStack,Text> reason;
+
+        private Outcome(Function<ItemStack,Text> reason) {
+            this.reason = reason;
+        }
+
+        /**
+         * @param reason describes why the given item was skipped. It is only called for the items that end up in the error summary.
+         * @return an outcome that leaves the item alone and reports it as an error
+         */
+        public static Outcome skip(Function<ItemStack,Text> reason) {
+            return new Outcome(reason);
+        }
+
+        public boolean isSkipped() {
+            return reason != null;
+        }
+
+        public Text describe(ItemStack item) {
+            return reason.apply(item);
+        }
     }
 }
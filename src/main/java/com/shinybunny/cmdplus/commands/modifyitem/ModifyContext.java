@@ -1,13 +1,73 @@
 package com.shinybunny.cmdplus.commands.modifyitem;
 
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.context.ParsedCommandNode;
+import com.mojang.brigadier.tree.LiteralCommandNode;
+import net.minecraft.server.command.ServerCommandSource;
+
+import java.util.Locale;
+
+/**
+ * The inventory type and slot finder of an execution, along with the command context that holds their arguments.
+ * <p>
+ * The action nodes are built once, under the first inventory type and slot finder. Every other combination redirects to that node
+ * and sets its selection on the source it hands over, see {@link #select(CommandContext, ModifyItemCommand.InventoryType, ModifyItemCommand.SlotFinderType)}.
+ * The combination that owns the action nodes is read from the literals of its path instead.
+ */
 public class ModifyContext {
 
     private ModifyItemCommand.InventoryType inventoryType;
     private ModifyItemCommand.SlotFinderType finderType;
+    private CommandContext<ServerCommandSource> selectionCtx;
 
-    public ModifyContext(ModifyItemCommand.InventoryType inventoryType, ModifyItemCommand.SlotFinderType finderType) {
+    public ModifyContext(ModifyItemCommand.InventoryType inventoryType, ModifyItemCommand.SlotFinderType finderType, CommandContext<ServerCommandSource> selectionCtx) {
         this.inventoryType = inventoryType;
         this.finderType = finderType;
+        this.selectionCtx = selectionCtx;
+    }
+
+    /**
+     * @return a copy of the context's source that remembers the inventory type and slot finder parsed in the context
+     */
+    public static ServerCommandSource select(CommandContext<ServerCommandSource> ctx, ModifyItemCommand.InventoryType inventoryType, ModifyItemCommand.SlotFinderType finderType) {
+        ServerCommandSource source = ModifyOptions.copySource(ctx.getSource());
+        ModifySource.of(source).setModifySelection(new ModifyContext(inventoryType,finderType,ctx));
+        return source;
+    }
+
+    /**
+     * @return the selection set on the source of the context, or the inventory type and slot finder literals of the context
+     * if the command went straight through the node that owns the actions
+     * @throws IllegalStateException if the context has neither
+     */
+    public static ModifyContext get(CommandContext<ServerCommandSource> ctx) {
+        ModifyContext selected = ModifySource.of(ctx.getSource()).getModifySelection();
+        if (selected != null) {
+            return selected;
+        }
+        ModifyItemCommand.InventoryType inventoryType = null;
+        for (ParsedCommandNode<ServerCommandSource> node : ctx.getNodes()) {
+            if (!(node.getNode() instanceof LiteralCommandNode)) continue;
+            String literal = node.getNode().getName();
+            if (inventoryType == null) {
+                inventoryType = find(ModifyItemCommand.InventoryType.values(),literal);
+            } else {
+                ModifyItemCommand.SlotFinderType finderType = find(ModifyItemCommand.SlotFinderType.values(),literal);
+                if (finderType != null) {
+                    return new ModifyContext(inventoryType,finderType,ctx);
+                }
+            }
+        }
+        throw new IllegalStateException("No inventory type and slot finder in " + ctx.getInput());
+    }
+
+    private static <T extends Enum<T>> T find(T[] values, String literal) {
+        for (T value : values) {
+            if (value.name().toLowerCase(Locale.ROOT).equals(literal)) {
+                return value;
+            }
+        }
+        return null;
     }
 
     public ModifyItemCommand.InventoryType getInventoryType() {
@@ -17,4 +77,11 @@ public class ModifyContext {
     public ModifyItemCommand.SlotFinderType getFinderType() {
         return finderType;
     }
+
+    /**
+     * @return the command context holding the inventory and slot finder arguments
+     */
+    public CommandContext<ServerCommandSource> getSelectionCtx() {
+        return selectionCtx;
+    }
 }
@@ -3,7 +3,6 @@ package com.shinybunny.cmdplus.commands.modifyitem;
 import com.mojang.brigadier.Command;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.builder.ArgumentBuilder;
-import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
 import com.shinybunny.cmdplus.commands.ArgumentKey;
 import net.minecraft.item.ItemStack;
 import net.minecraft.server.command.ServerCommandSource;
@@ -14,8 +13,8 @@ public class ModifyDamage implements ModifyActionType<ModifyDamage.Mode> {
 
     private static final ArgumentKey<Integer> AMOUNT = ArgumentKey.make("amount",()-> IntegerArgumentType.integer(0),IntegerArgumentType::getInteger);
 
-    private static final DynamicCommandExceptionType NOT_DAMAGABLE = new DynamicCommandExceptionType(item->{
-        return new TranslatableText("commands.modifyitem.failed.damage.not_damageable",item);
+    private static final Outcome NOT_DAMAGABLE = Outcome.skip(item->{
+        return new TranslatableText("commands.modifyitem.failed.damage.not_damageable",item.getName());
     });
 
     @Override
@@ -36,15 +35,15 @@ public class ModifyDamage implements ModifyActionType<ModifyDamage.Mode> {
             }
 
             @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return new TranslatableText("commands.modifyitem.success.damage.add",itemCount,ctx.get(AMOUNT));
+            protected Text getSuccessMessage(int amount, int itemCount) {
+                return new TranslatableText("commands.modifyitem.success.damage.add",itemCount,amount);
             }
         },
         RESTORE {
 
             @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return new TranslatableText("commands.modifyitem.success.damage.restore",ctx.get(AMOUNT),itemCount);
+            protected Text getSuccessMessage(int amount, int itemCount) {
+                return new TranslatableText("commands.modifyitem.success.damage.restore",amount,itemCount);
             }
 
             @Override
@@ -55,8 +54,8 @@ public class ModifyDamage implements ModifyActionType<ModifyDamage.Mode> {
         SET {
 
             @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return new TranslatableText("commands.modifyitem.success.damage.set",ctx.get(AMOUNT),itemCount);
+            protected Text getSuccessMessage(int amount, int itemCount) {
+                return new TranslatableText("commands.modifyitem.success.damage.set",amount,itemCount);
             }
 
             @Override
@@ -67,26 +66,37 @@ public class ModifyDamage implements ModifyActionType<ModifyDamage.Mode> {
 
         protected abstract int modify(int damage, int amount);
 
+        protected abstract Text getSuccessMessage(int amount, int itemCount);
+
         @Override
         public ArgumentBuilder<ServerCommandSource, ?> buildArguments(Command<ServerCommandSource> execute) {
             return argument(AMOUNT,execute);
         }
 
         @Override
-        public void modify(ModifyExecuteContext ctx, ItemStack item) throws Exception {
+        public Plan compile(ModifyExecuteContext ctx) {
             int amount = ctx.get(AMOUNT);
-            if (!item.isDamageable()) {
-                throw NOT_DAMAGABLE.create(item.getName());
-            }
-            int damage = item.getDamage();
-            int result = modify(damage,amount);
-            if (result < 0) {
-                result = 0;
-            }
-            if (result > item.getMaxDamage()) {
-                throw new RemoveItem();
-            }
-            item.setDamage(result);
+            return Plan.of(item->!item.isDamageable() || getResult(item,amount) != item.getDamage(),item->{
+                if (!item.isDamageable()) {
+                    return NOT_DAMAGABLE;
+                }
+                int result = getResult(item,amount);
+                if (result > item.getMaxDamage()) {
+                    return Outcome.REMOVE;
+                }
+                if (result == item.getDamage()) {
+                    return Outcome.UNCHANGED;
+                }
+                item.setDamage(result);
+                return Outcome.MODIFIED;
+            },itemCount->getSuccessMessage(amount,itemCount));
+        }
+
+        /**
+         * @return the new damage of the item, which is more than its max damage if it breaks
+         */
+        private int getResult(ItemStack item, int amount) {
+            return Math.max(0,modify(item.getDamage(),amount));
         }
     }
 
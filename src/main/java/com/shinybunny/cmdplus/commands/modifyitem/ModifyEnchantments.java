@@ -4,21 +4,13 @@ import com.mojang.brigadier.Command;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.builder.ArgumentBuilder;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
-import com.mojang.brigadier.exceptions.Dynamic2CommandExceptionType;
 import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
 import com.shinybunny.cmdplus.commands.ArgumentKey;
-import net.minecraft.client.resource.language.I18n;
 import net.minecraft.command.arguments.ItemEnchantmentArgumentType;
 import net.minecraft.enchantment.Enchantment;
-import net.minecraft.enchantment.EnchantmentHelper;
-import net.minecraft.item.ItemStack;
 import net.minecraft.server.command.ServerCommandSource;
-import net.minecraft.text.Text;
 import net.minecraft.text.TranslatableText;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class ModifyEnchantments implements ModifyActionType<ModifyEnchantments.Mode> {
 
     private static final ArgumentKey<Enchantment> ENCHANTMENT = ArgumentKey.make("enchantment",ItemEnchantmentArgumentType::itemEnchantment,ItemEnchantmentArgumentType::getEnchantment);
@@ -27,17 +19,11 @@ public class ModifyEnchantments implements ModifyActionType<ModifyEnchantments.M
     private static final DynamicCommandExceptionType NON_POSITIVE_LEVEL_EXCEPTION = new DynamicCommandExceptionType(i -> {
         return new TranslatableText("commands.modifyitem.failed.enchantment.non_positive_level", i);
     });
-    private static final Dynamic2CommandExceptionType EQUAL_LEVELS_EXCEPTION = new Dynamic2CommandExceptionType((item, i) -> {
-        return new TranslatableText("commands.modifyitem.failed.enchantment.set.equal_levels", item, i);
-    });
     private static final DynamicCommandExceptionType INVALID_REMOVE_ENCHANT_LEVEL = new DynamicCommandExceptionType(i -> {
         return new TranslatableText("commands.modifyitem.failed.enchantment.remove.invalid_level", i);
     });
-    private static final Dynamic2CommandExceptionType ITEM_DOESNT_HAVE_ENCHANTMENT = new Dynamic2CommandExceptionType((item, ench) -> {
-        return new TranslatableText("commands.modifyitem.failed.enchantment.remove.ench_not_present", item, ench);
-    });
-    private static final DynamicCommandExceptionType NO_ENCHANTMENTS = new DynamicCommandExceptionType((item) -> {
-        return new TranslatableText("commands.modifyitem.failed.enchantment.clear.no_enchants", item);
+    private static final Outcome NO_ENCHANTMENTS = Outcome.skip(item -> {
+        return new TranslatableText("commands.modifyitem.failed.enchantment.clear.no_enchants", item.getName());
     });
 
     @Override
@@ -60,29 +46,22 @@ public class ModifyEnchantments implements ModifyActionType<ModifyEnchantments.M
             }
 
             @Override
-            public void modify(ModifyExecuteContext ctx, ItemStack item) throws CommandSyntaxException {
+            public Plan compile(ModifyExecuteContext ctx) throws CommandSyntaxException {
                 Enchantment enchantment = ctx.get(ENCHANTMENT);
-                int rank = ctx.get(RANK,1);
-                Map<Enchantment, Integer> enchantments = EnchantmentHelper.getEnchantments(item);
-                if (enchantments.getOrDefault(enchantment, 0) == rank) {
-                    throw EQUAL_LEVELS_EXCEPTION.create(item, rank);
-                }
-                int prevLevel = enchantments.getOrDefault(enchantment, 0);
-                enchantments.put(enchantment, prevLevel + rank);
-                EnchantmentHelper.set(enchantments, item);
-            }
-
-            @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return new TranslatableText("commands.modifyitem.success.enchantment.add",ctx.get(RANK), I18n.translate(ctx.get(ENCHANTMENT).getTranslationKey()), itemCount);
-            }
-
-            @Override
-            public void validate(ModifyExecuteContext ctx) throws CommandSyntaxException {
                 int rank = ctx.get(RANK,1);
                 if (rank <= 0) {
-                    throw NON_POSITIVE_LEVEL_EXCEPTION.create(RANK);
+                    throw NON_POSITIVE_LEVEL_EXCEPTION.create(rank);
                 }
+                EnchantmentEditor editor = new EnchantmentEditor(enchantment);
+                Outcome equalLevels = Outcome.skip(item -> new TranslatableText("commands.modifyitem.failed.enchantment.set.equal_levels", item.getName(), rank));
+                return Plan.of(item->{
+                    int prevLevel = editor.getLevel(item);
+                    if (prevLevel == rank) {
+                        return equalLevels;
+                    }
+                    editor.setLevel(item, prevLevel + rank);
+                    return Outcome.MODIFIED;
+                },itemCount->new TranslatableText("commands.modifyitem.success.enchantment.add",rank,new TranslatableText(enchantment.getTranslationKey()),itemCount));
             }
         },
         SET {
@@ -92,25 +71,17 @@ public class ModifyEnchantments implements ModifyActionType<ModifyEnchantments.M
             }
 
             @Override
-            public void modify(ModifyExecuteContext ctx, ItemStack item) throws CommandSyntaxException {
+            public Plan compile(ModifyExecuteContext ctx) throws CommandSyntaxException {
                 Enchantment enchantment = ctx.get(ENCHANTMENT);
-                int rank = ctx.get(RANK,1);
-                Map<Enchantment, Integer> enchantments = EnchantmentHelper.getEnchantments(item);
-                enchantments.put(enchantment, rank);
-                EnchantmentHelper.set(enchantments, item);
-            }
-
-            @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return new TranslatableText("commands.modifyitem.success.enchantment.set",ctx.get(ENCHANTMENT).getName(ctx.get(RANK)),itemCount);
-            }
-
-            @Override
-            public void validate(ModifyExecuteContext ctx) throws CommandSyntaxException {
                 int rank = ctx.get(RANK,1);
                 if (rank <= 0) {
-                    throw NON_POSITIVE_LEVEL_EXCEPTION.create(RANK);
+                    throw NON_POSITIVE_LEVEL_EXCEPTION.create(rank);
                 }
+                EnchantmentEditor editor = new EnchantmentEditor(enchantment);
+                return Plan.of(item->{
+                    editor.setLevel(item, rank);
+                    return Outcome.MODIFIED;
+                },itemCount->new TranslatableText("commands.modifyitem.success.enchantment.set",enchantment.getName(rank),itemCount));
             }
         },
         REMOVE {
@@ -120,33 +91,27 @@ public class ModifyEnchantments implements ModifyActionType<ModifyEnchantments.M
             }
 
             @Override
-            public void modify(ModifyExecuteContext ctx, ItemStack item) throws CommandSyntaxException {
+            public Plan compile(ModifyExecuteContext ctx) throws CommandSyntaxException {
                 Enchantment enchantment = ctx.get(ENCHANTMENT);
-                int rank = ctx.get(RANK,-1);
-                Map<Enchantment, Integer> enchantments = EnchantmentHelper.getEnchantments(item);
-                if (!enchantments.containsKey(enchantment)) {
-                    throw ITEM_DOESNT_HAVE_ENCHANTMENT.create(item.getName(), I18n.translate(enchantment.getTranslationKey()));
-                }
-                int resultLevel = enchantments.get(enchantment) - rank;
-                if (rank == -1 || resultLevel <= 0) {
-                    enchantments.remove(enchantment);
-                } else {
-                    enchantments.put(enchantment, resultLevel);
-                }
-                EnchantmentHelper.set(enchantments, item);
-            }
-
-            @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return new TranslatableText("commands.modifyitem.success.enchantment.remove",ctx.get(RANK),I18n.translate(ctx.get(ENCHANTMENT).getTranslationKey()),itemCount);
-            }
-
-            @Override
-            public void validate(ModifyExecuteContext ctx) throws CommandSyntaxException {
                 int rank = ctx.get(RANK,-1);
                 if (rank < -1 || rank == 0) {
-                    throw NON_POSITIVE_LEVEL_EXCEPTION.create(RANK);
+                    throw INVALID_REMOVE_ENCHANT_LEVEL.create(rank);
                 }
+                EnchantmentEditor editor = new EnchantmentEditor(enchantment);
+                Outcome notPresent = Outcome.skip(item -> new TranslatableText("commands.modifyitem.failed.enchantment.remove.ench_not_present", item.getName(), new TranslatableText(enchantment.getTranslationKey())));
+                return Plan.of(item->{
+                    int level = editor.getLevel(item);
+                    if (level == 0) {
+                        return notPresent;
+                    }
+                    int resultLevel = level - rank;
+                    if (rank == -1 || resultLevel <= 0) {
+                        editor.remove(item);
+                    } else {
+                        editor.setLevel(item, resultLevel);
+                    }
+                    return Outcome.MODIFIED;
+                },itemCount->new TranslatableText("commands.modifyitem.success.enchantment.remove",rank,new TranslatableText(enchantment.getTranslationKey()),itemCount));
             }
         },
         CLEAR {
@@ -156,22 +121,13 @@ public class ModifyEnchantments implements ModifyActionType<ModifyEnchantments.M
             }
 
             @Override
-            public void modify(ModifyExecuteContext ctx, ItemStack item) throws CommandSyntaxException {
-                if (item.hasEnchantments()) {
-                    EnchantmentHelper.set(new HashMap<>(), item);
-                } else {
-                    throw NO_ENCHANTMENTS.create(item.getName());
-                }
-            }
-
-            @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return new TranslatableText("commands.modifyitem.success.enchantment.clear",itemCount);
+            public Plan compile(ModifyExecuteContext ctx) {
+                return Plan.of(item->{
+                    return EnchantmentEditor.clear(item) ? Outcome.MODIFIED : NO_ENCHANTMENTS;
+                },itemCount->new TranslatableText("commands.modifyitem.success.enchantment.clear",itemCount));
             }
         }
 
     }
 
 }
-
-
@@ -14,8 +14,8 @@ public class ModifyExecuteContext extends ModifyContext {
     private CommandContext<ServerCommandSource> cmdCtx;
     private Map<ArgumentKey<?>,Object> valueCache = new HashMap<>();
 
-    public ModifyExecuteContext(ModifyItemCommand.InventoryType inventoryType, ModifyItemCommand.SlotFinderType finderType, CommandContext<ServerCommandSource> cmdCtx) {
-        super(inventoryType, finderType);
+    public ModifyExecuteContext(ModifyContext selection, CommandContext<ServerCommandSource> cmdCtx) {
+        super(selection.getInventoryType(), selection.getFinderType(), selection.getSelectionCtx());
         this.cmdCtx = cmdCtx;
     }
 
@@ -23,12 +23,19 @@ public class ModifyExecuteContext extends ModifyContext {
         return cmdCtx;
     }
 
+    public ModifyOptions getOptions() {
+        return ModifyOptions.get(cmdCtx.getSource());
+    }
+
     public void sendError(Text text) {
         cmdCtx.getSource().sendError(text);
     }
 
+    /**
+     * Sends feedback to the source, and broadcasts it to operators unless the command was run with the <code>quiet</code> option.
+     */
     public void sendFeedback(Text text) {
-        cmdCtx.getSource().sendFeedback(text,true);
+        cmdCtx.getSource().sendFeedback(text,!getOptions().isQuiet());
     }
 
     public <T> void set(ArgumentKey<T> key, T value) {
@@ -36,12 +43,12 @@ public class ModifyExecuteContext extends ModifyContext {
     }
 
     public <T> T get(ArgumentKey<T> key) {
-        Object t = valueCache.get(key);
-        if (t == null) {
-            t = key.get(cmdCtx);
-            valueCache.put(key, t);
+        if (valueCache.containsKey(key)) {
+            return (T) valueCache.get(key);
         }
-        return (T) t;
+        T t = key.get(cmdCtx);
+        valueCache.put(key, t);
+        return t;
     }
 
     public <T> T get(ArgumentKey<T> key, T def) {
@@ -2,51 +2,144 @@ package com.shinybunny.cmdplus.commands.modifyitem;
 
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.builder.ArgumentBuilder;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.builder.RequiredArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.exceptions.*;
+import com.mojang.brigadier.tree.CommandNode;
+import com.mojang.brigadier.tree.LiteralCommandNode;
 import com.shinybunny.cmdplus.commands.EntityInventoryHelper;
+import com.shinybunny.cmdplus.commands.ItemSlots;
+import com.shinybunny.cmdplus.mixin.LootableContainerBlockEntityAccessor;
 import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.block.entity.LootableContainerBlockEntity;
 import net.minecraft.command.arguments.*;
 import net.minecraft.entity.Entity;
 import net.minecraft.inventory.Inventory;
 import net.minecraft.item.ItemStack;
 import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
 import net.minecraft.text.TranslatableText;
+import net.minecraft.util.math.BlockBox;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.chunk.WorldChunk;
 
 import java.util.*;
-import java.util.function.Predicate;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static net.minecraft.server.command.CommandManager.*;
 
 public class ModifyItemCommand {
 
+    private static final SimpleCommandExceptionType NOTHING_TO_UNDO_EXCEPTION = new SimpleCommandExceptionType(new TranslatableText("commands.modifyitem.undo.failed.empty"));
+
     private static final ModifyActionType<?>[] MODIFY_ACTION_TYPES = new ModifyActionType[]{new ModifyEnchantments(),new ModifyDamage(),new ModifyNBT(),new ModifyLore(),new ModifyUsage(ModifyUsage.Type.CAN_BREAK),new ModifyUsage(ModifyUsage.Type.CAN_PLACE_ON)};
 
     public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
         LiteralArgumentBuilder<ServerCommandSource> builder = literal("modifyitem")
                 .requires((src)->src.hasPermissionLevel(2));
+        ActionsNode actions = new ActionsNode();
         for (InventoryType type : InventoryType.values()) {
-            builder.then(literal(type.name().toLowerCase(Locale.ROOT)).then(buildForInventory(type)));
+            builder.then(literal(type.name().toLowerCase(Locale.ROOT)).then(buildForInventory(type,actions)));
         }
-        dispatcher.register(builder);
+        LiteralCommandNode<ServerCommandSource> root = dispatcher.register(builder);
+        root.addChild(literal("deferred")
+                .then(argument("tickBudget",IntegerArgumentType.integer(1,50)).redirect(root,ctx->{
+                    ModifyOptions options = ModifyOptions.get(ctx.getSource()).deferred(IntegerArgumentType.getInteger(ctx,"tickBudget"));
+                    return ModifyOptions.with(ctx.getSource(),options);
+                })).build());
+        root.addChild(literal("parallel").redirect(root,ctx->{
+            return ModifyOptions.with(ctx.getSource(),ModifyOptions.get(ctx.getSource()).parallel());
+        }).build());
+        root.addChild(literal("quiet").redirect(root,ctx->{
+            return ModifyOptions.with(ctx.getSource(),ModifyOptions.get(ctx.getSource()).quiet());
+        }).build());
+        root.addChild(literal("dryrun").redirect(root,ctx->{
+            return ModifyOptions.with(ctx.getSource(),ModifyOptions.get(ctx.getSource()).dryRun());
+        }).build());
+        root.addChild(literal("undo")
+                .executes(ctx->undo(ctx,1))
+                .then(argument("count",IntegerArgumentType.integer(1)).executes(ctx->undo(ctx,IntegerArgumentType.getInteger(ctx,"count"))))
+                .build());
     }
 
-    private static ArgumentBuilder<ServerCommandSource,?> buildForInventory(InventoryType inventoryType) {
+    /**
+     * Undoes the latest modifyitem executions in the world of the source.
+     * With the <code>dryrun</code> option nothing is undone, and the source is only told what would be restored.
+     * @return the amount of restored items
+     */
+    private static int undo(CommandContext<ServerCommandSource> ctx, int count) throws CommandSyntaxException {
+        ServerWorld world = ctx.getSource().getWorld();
+        UndoJournal journal = UndoJournal.get(world);
+        ModifyOptions options = ModifyOptions.get(ctx.getSource());
+        List<UndoJournal.Entry> entries;
+        if (options.isDryRun()) {
+            entries = journal.peek(count);
+        } else {
+            entries = new ArrayList<>();
+            while (entries.size() < count) {
+                UndoJournal.Entry entry = journal.pop();
+                if (entry == null) break;
+                entries.add(entry);
+            }
+        }
+        if (entries.isEmpty()) {
+            throw NOTHING_TO_UNDO_EXCEPTION.create();
+        }
+        int restored = 0;
+        int skipped = 0;
+        for (UndoJournal.Entry entry : entries) {
+            int r = options.isDryRun() ? entry.countRestorable(world) : entry.undo(world);
+            restored += r;
+            skipped += entry.getSlotCount() - r;
+        }
+        if (options.isDryRun()) {
+            // nothing changed, so this is never broadcast
+            ctx.getSource().sendFeedback(new TranslatableText("commands.modifyitem.undo.dryrun",entries.size(),restored,skipped),false);
+        } else if (skipped == 0) {
+            ctx.getSource().sendFeedback(new TranslatableText("commands.modifyitem.undo.success",entries.size(),restored),!options.isQuiet());
+        } else {
+            ctx.getSource().sendFeedback(new TranslatableText("commands.modifyitem.undo.success.skipped",entries.size(),restored,skipped),!options.isQuiet());
+        }
+        return restored;
+    }
+
+    private static ArgumentBuilder<ServerCommandSource,?> buildForInventory(InventoryType inventoryType, ActionsNode actions) {
         ArgumentBuilder<ServerCommandSource,?> builder = inventoryType.getSelectorArgument();
 
         for (SlotFinderType type : SlotFinderType.values()) {
-            builder.then(literal(type.name().toLowerCase(Locale.ROOT)).then(buildForSlotFinder(inventoryType,type)));
+            builder.then(literal(type.name().toLowerCase(Locale.ROOT)).then(buildForSlotFinder(inventoryType,type,actions)));
         }
-        return builder;
+        return inventoryType.wrapSelectorArgument(builder);
+    }
+
+    private static CommandNode<ServerCommandSource> buildForSlotFinder(InventoryType inventoryType, SlotFinderType finderType, ActionsNode actions) {
+        return finderType.buildArguments(last->actions.attach(last,inventoryType,finderType));
     }
 
-    private static ArgumentBuilder<ServerCommandSource, ?> buildForSlotFinder(InventoryType inventoryType, SlotFinderType finderType) {
-        return finderType.buildArguments(inventoryType);
+    /**
+     * Builds the action nodes only once, under the last argument of the first inventory type and slot finder.
+     * The last arguments of all other combinations redirect to that node, so the actions aren't duplicated in the tree and in the command tree packet.
+     */
+    private static class ActionsNode {
+
+        private CommandNode<ServerCommandSource> node;
+
+        private CommandNode<ServerCommandSource> attach(ArgumentBuilder<ServerCommandSource,?> last, InventoryType inventoryType, SlotFinderType finderType) {
+            if (node == null) {
+                node = last.build();
+                for (ModifyActionType<?> actionType : MODIFY_ACTION_TYPES) {
+                    node.addChild(actionType.build(node));
+                }
+                return node;
+            }
+            return last.redirect(node,ctx->ModifyContext.select(ctx,inventoryType,finderType)).build();
+        }
     }
 
 
@@ -78,12 +171,75 @@ public class ModifyItemCommand {
                 Collection<? extends Entity> entities = EntityArgumentType.getEntities(ctx,"selector");
                 return entities.stream().map(InventoryHandle::entity).collect(Collectors.toList());
             }
+        },
+        REGION {
+            @Override
+            public RequiredArgumentBuilder<ServerCommandSource, ?> getSelectorArgument() {
+                return argument("to", BlockPosArgumentType.blockPos());
+            }
+
+            @Override
+            public ArgumentBuilder<ServerCommandSource, ?> wrapSelectorArgument(ArgumentBuilder<ServerCommandSource, ?> selector) {
+                return argument("from", BlockPosArgumentType.blockPos()).then(selector);
+            }
+
+            /**
+             * Walks the block entities of the loaded chunks that intersect the region, instead of looking up every position in it.
+             * Regions that span more than {@link InventoryType#MAX_REGION_CHUNKS} chunks are rejected before any chunk is looked at.
+             * <p>
+             * Containers whose loot wasn't generated yet (unopened structure chests) are skipped, since reading their slots would generate it,
+             * even in a dry run.
+             */
+            @Override
+            public List<InventoryHandle> getInventories(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+                BlockBox box = new BlockBox(BlockPosArgumentType.getLoadedBlockPos(ctx,"from"),BlockPosArgumentType.getLoadedBlockPos(ctx,"to"));
+                long chunks = (long) ((box.maxX >> 4) - (box.minX >> 4) + 1) * ((box.maxZ >> 4) - (box.minZ >> 4) + 1);
+                if (chunks > MAX_REGION_CHUNKS) {
+                    throw REGION_TOO_BIG_EXCEPTION.create(MAX_REGION_CHUNKS,chunks);
+                }
+                ServerWorld world = ctx.getSource().getWorld();
+                List<InventoryHandle> inventories = new ArrayList<>();
+                for (int chunkX = box.minX >> 4; chunkX <= box.maxX >> 4; chunkX++) {
+                    for (int chunkZ = box.minZ >> 4; chunkZ <= box.maxZ >> 4; chunkZ++) {
+                        WorldChunk chunk = world.getChunkManager().getWorldChunk(chunkX,chunkZ,false);
+                        if (chunk == null) continue;
+                        for (BlockEntity te : chunk.getBlockEntities().values()) {
+                            if (te instanceof Inventory && box.contains(te.getPos()) && !hasPendingLoot(te)) {
+                                inventories.add(InventoryHandle.normal((Inventory) te));
+                            }
+                        }
+                    }
+                }
+                return inventories;
+            }
+
+            private boolean hasPendingLoot(BlockEntity te) {
+                return te instanceof LootableContainerBlockEntity && ((LootableContainerBlockEntityAccessor) te).getLootTableId() != null;
+            }
         };
 
         public static final SimpleCommandExceptionType NOT_INVENTORY_EXCEPTION = new SimpleCommandExceptionType(new TranslatableText("commands.replaceitem.failed.block"));
-
+        public static final Dynamic2CommandExceptionType REGION_TOO_BIG_EXCEPTION = new Dynamic2CommandExceptionType((max,specified)->{
+            return new TranslatableText("commands.modifyitem.failed.region.too_big",max,specified);
+        });
+
+        /**
+         * The most chunks a region may span, like the volume limit of <code>/fill</code>
+         */
+        public static final int MAX_REGION_CHUNKS = 4096;
+
+        /**
+         * @return the last argument of the inventory selector, which the slot finders are added to
+         */
         public abstract RequiredArgumentBuilder<ServerCommandSource,?> getSelectorArgument();
 
+        /**
+         * Adds the arguments that come before the last selector argument, if the selector has more than one.
+         */
+        public ArgumentBuilder<ServerCommandSource,?> wrapSelectorArgument(ArgumentBuilder<ServerCommandSource,?> selector) {
+            return selector;
+        }
+
         public abstract List<InventoryHandle> getInventories(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException;
     }
 
@@ -93,51 +249,68 @@ public class ModifyItemCommand {
     public enum SlotFinderType {
         SLOT {
             @Override
-            public ArgumentBuilder<ServerCommandSource, ?> buildArguments(InventoryType inventoryType) {
-                ArgumentBuilder<ServerCommandSource,?> builder = argument("slotName",ItemSlotArgumentType.itemSlot());
-                return addActions(inventoryType,builder);
+            public CommandNode<ServerCommandSource> buildArguments(Function<ArgumentBuilder<ServerCommandSource,?>,CommandNode<ServerCommandSource>> finishLast) {
+                return finishLast.apply(argument("slotName",StringArgumentType.string()).suggests(SlotPattern::suggest));
             }
 
+            /**
+             * Parses the slot names, ranges and wildcards once, see {@link SlotPattern}.
+             */
             @Override
-            public Map<Integer,ItemStack> findItems(InventoryHandle inventory, CommandContext<ServerCommandSource> ctx) {
-                int slot = ItemSlotArgumentType.getItemSlot(ctx,"slotName");
-                return Collections.singletonMap(slot,inventory.getItem(slot));
+            public SlotFinder compile(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+                return SlotPattern.parse(StringArgumentType.getString(ctx,"slotName"))::find;
             }
         },
         ITEM {
             @Override
-            public ArgumentBuilder<ServerCommandSource, ?> buildArguments(InventoryType inventoryType) {
-                ArgumentBuilder<ServerCommandSource,?> builder = addActions(inventoryType,argument("count",IntegerArgumentType.integer(-1)));
-                return argument("item",ItemPredicateArgumentType.itemPredicate()).then(builder);
+            public CommandNode<ServerCommandSource> buildArguments(Function<ArgumentBuilder<ServerCommandSource,?>,CommandNode<ServerCommandSource>> finishLast) {
+                CommandNode<ServerCommandSource> node = finishLast.apply(argument("count",IntegerArgumentType.integer(-1)));
+                return argument("item",ItemPredicateArgumentType.itemPredicate()).then(node).build();
             }
 
             @Override
-            public Map<Integer,ItemStack> findItems(InventoryHandle inventory, CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
-                Map<Integer,ItemStack> items = inventory.getItems();
-                Map<Integer,ItemStack> matching = new HashMap<>();
-                Predicate<ItemStack> predicate = ItemPredicateArgumentType.getItemPredicate(ctx,"item");
+            public SlotFinder compile(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+                ItemMatcher matcher = ItemMatcher.compile(ctx,"item");
                 int maxCount = IntegerArgumentType.getInteger(ctx,"count");
-                for (Map.Entry<Integer,ItemStack> e : items.entrySet()) {
-                    if (matching.size() >= maxCount && maxCount != -1) break;
-                    ItemStack stack = e.getValue();
-                    if (predicate.test(stack)) {
-                        matching.put(e.getKey(),stack);
+                return inventory->{
+                    if (maxCount == 0) {
+                        return ItemSlots.empty();
                     }
-                }
-                return matching;
+                    ItemSlots items = inventory.getItems();
+                    ItemSlots matching = new ItemSlots();
+                    int found = 0;
+                    for (int slot = items.firstSlot(); slot >= 0; slot = items.nextSlot(slot)) {
+                        ItemStack stack = items.get(slot);
+                        if (matcher.test(stack)) {
+                            matching.put(slot,stack);
+                            if (++found == maxCount) break;
+                        }
+                    }
+                    return matching;
+                };
             }
         };
 
-        public abstract Map<Integer,ItemStack> findItems(InventoryHandle inventory, CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException;
+        /**
+         * Reads the finder arguments once per execution.
+         */
+        public abstract SlotFinder compile(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException;
 
-        public abstract ArgumentBuilder<ServerCommandSource,?> buildArguments(InventoryType inventoryType);
+        /**
+         * Builds the finder arguments.
+         * @param finishLast builds the last argument of the finder, which the actions come after
+         */
+        public abstract CommandNode<ServerCommandSource> buildArguments(Function<ArgumentBuilder<ServerCommandSource,?>,CommandNode<ServerCommandSource>> finishLast);
+    }
+
+    @FunctionalInterface
+    public interface SlotFinder {
+
+        /**
+         * @return the matching slots of the inventory, in ascending order
+         */
+        ItemSlots findItems(InventoryHandle inventory);
 
-        public ArgumentBuilder<ServerCommandSource,?> addActions(InventoryType inventoryType, ArgumentBuilder<ServerCommandSource,?> builder) {
-            for (ModifyActionType<?> actionType : MODIFY_ACTION_TYPES) {
-                builder.then(actionType.build(new ModifyContext(inventoryType,this)));
-            }
-            return builder;
-        }
     }
 
     public interface InventoryHandle {
@@ -150,14 +323,31 @@ public class ModifyItemCommand {
                     inv.setInvStack(slot,stack);
                 }
 
+                /**
+                 * @return the item at the slot, or null if the inventory doesn't have that slot. Region inventories differ in size.
+                 */
                 @Override
                 public ItemStack getItem(int slot) {
-                    return inv.getInvStack(slot);
+                    return slot >= 0 && slot < inv.getInvSize() ? inv.getInvStack(slot) : null;
+                }
+
+                @Override
+                public UndoJournal.Target getUndoTarget() {
+                    return inv instanceof BlockEntity ? UndoJournal.Target.block(((BlockEntity) inv).getPos()) : null;
+                }
+
+                @Override
+                public Text getName() {
+                    if (inv instanceof BlockEntity) {
+                        BlockPos pos = ((BlockEntity) inv).getPos();
+                        return new TranslatableText("commands.modifyitem.inventory.block",pos.getX(),pos.getY(),pos.getZ());
+                    }
+                    return InventoryHandle.super.getName();
                 }
 
                 @Override
-                public Map<Integer, ItemStack> getItems() {
-                    Map<Integer, ItemStack> items = new HashMap<>();
+                public ItemSlots getItems() {
+                    ItemSlots items = new ItemSlots(inv.getInvSize());
                     for (int i = 0; i < inv.getInvSize(); i++) {
                         items.put(i,inv.getInvStack(i));
                     }
@@ -168,9 +358,29 @@ public class ModifyItemCommand {
 
         static InventoryHandle entity(Entity entity) {
             return new InventoryHandle() {
+                /**
+                 * The amount of written slots that a player still has to be sent
+                 */
+                private int unsynced;
+
                 @Override
                 public void setItem(int slot, ItemStack stack) {
-                    entity.equip(slot,stack);
+                    EntityInventoryHelper.setItem(entity,slot,stack);
+                    if (EntityInventoryHelper.isPlayerContainerSlot(slot)) {
+                        unsynced++;
+                    }
+                }
+
+                /**
+                 * Sends all written slots of a player in one inventory packet. A single slot is left to the container's own update,
+                 * which sends just that slot. Mobs send their equipment changes on their next tick, once per changed equipment slot.
+                 */
+                @Override
+                public void flush() {
+                    if (unsynced > 1 && entity instanceof ServerPlayerEntity) {
+                        EntityInventoryHelper.syncInventory((ServerPlayerEntity) entity);
+                    }
+                    unsynced = 0;
                 }
 
                 @Override
@@ -179,7 +389,22 @@ public class ModifyItemCommand {
                 }
 
                 @Override
-                public Map<Integer,ItemStack> getItems() {
+                public boolean isValid() {
+                    return !entity.removed;
+                }
+
+                @Override
+                public UndoJournal.Target getUndoTarget() {
+                    return UndoJournal.Target.entity(entity.getUuid());
+                }
+
+                @Override
+                public Text getName() {
+                    return entity.getDisplayName();
+                }
+
+                @Override
+                public ItemSlots getItems() {
                     return EntityInventoryHelper.getItems(entity);
                 }
             };
@@ -189,6 +414,34 @@ public class ModifyItemCommand {
 
         ItemStack getItem(int slot);
 
-        Map<Integer,ItemStack> getItems();
+        ItemSlots getItems();
+
+        /**
+         * @return whether the inventory still exists. Deferred jobs skip inventories that were removed while they waited.
+         */
+        default boolean isValid() {
+            return true;
+        }
+
+        /**
+         * Sends the slots written since the last flush to the clients that show them, as few packets as possible.
+         * Called after each batch of writes to an inventory.
+         */
+        default void flush() {
+        }
+
+        /**
+         * @return the inventory as shown in error messages, e.g. the position of a block or the name of an entity
+         */
+        default Text getName() {
+            return new TranslatableText("commands.modifyitem.inventory.unknown");
+        }
+
+        /**
+         * @return how to find this inventory again to undo changes, or null if changes to it can't be undone
+         */
+        default UndoJournal.Target getUndoTarget() {
+            return null;
+        }
     }
 }
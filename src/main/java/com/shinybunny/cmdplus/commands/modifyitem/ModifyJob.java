@@ -0,0 +1,170 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import com.shinybunny.cmdplus.commands.ItemSlots;
+import net.minecraft.item.ItemStack;
+import net.minecraft.text.LiteralText;
+import net.minecraft.text.TranslatableText;
+
+import java.util.List;
+
+/**
+ * Applies a plan to the items of a list of inventories. The job keeps a cursor over the inventories and their slots,
+ * so it can either run to completion at once or be resumed over several ticks.
+ */
+public class ModifyJob {
+
+    /**
+     * The expected time of a step when the action has no recorded timings yet
+     */
+    private static final long DEFAULT_STEP_NANOS = 200_000L;
+
+    private final ModifyExecuteContext ctx;
+    private final ModifyActionType.Plan plan;
+    private final PlanMemo memo;
+    private final ModifyMetrics.Entry metrics;
+    private final ModifyItemCommand.SlotFinder finder;
+    private final List<ModifyItemCommand.InventoryHandle> inventories;
+    private final boolean deferred;
+    private final long tickBudgetNanos;
+
+    private int inventoryIndex;
+    private ModifyItemCommand.InventoryHandle current;
+    private ItemSlots items;
+    private int slot = -1;
+
+    private int scanned;
+    private int modified;
+    private final ErrorSummary errors = new ErrorSummary();
+    private final UndoJournal.Entry undo = new UndoJournal.Entry();
+    private boolean failed;
+    /**
+     * The time spent running this job so far, over all ticks it ran in
+     */
+    private long nanos;
+    /**
+     * The longest time a single step (finding the items of an inventory, or modifying one item) took so far,
+     * starting from an estimate so the first step of a tick is checked against the deadline as well
+     */
+    private long slowestStep;
+
+    public ModifyJob(ModifyExecuteContext ctx, ModifyActionType.Plan plan, ModifyMetrics.Entry metrics, ModifyItemCommand.SlotFinder finder, List<ModifyItemCommand.InventoryHandle> inventories) {
+        this.ctx = ctx;
+        this.plan = plan;
+        this.memo = new PlanMemo(plan);
+        this.metrics = metrics;
+        this.finder = finder;
+        this.inventories = inventories;
+        this.deferred = ctx.getOptions().isDeferred();
+        this.tickBudgetNanos = ctx.getOptions().getTickBudgetNanos();
+        this.slowestStep = estimateStep(metrics);
+    }
+
+    /**
+     * @return the time earlier runs of the same action took per item, or {@link #DEFAULT_STEP_NANOS} if there were none
+     */
+    private static long estimateStep(ModifyMetrics.Entry metrics) {
+        long perItem = (long) metrics.getNanosPerItem();
+        return perItem > 0 ? perItem : DEFAULT_STEP_NANOS;
+    }
+
+    /**
+     * Runs the job until it is done, or until the next step could not be expected to finish before the deadline,
+     * judging by the slowest step so far. The first step of a run is always taken, so every run makes progress
+     * even when a single step takes longer than the whole budget. Only such runs go over the budget.
+     * @param deadline the {@link System#nanoTime()} to stop at
+     * @return whether the job is done
+     */
+    public boolean run(long deadline) {
+        long runStart = System.nanoTime();
+        try {
+            boolean first = true;
+            while (true) {
+                long start = System.nanoTime();
+                if (!first && deadline - start < slowestStep) {
+                    return false;
+                }
+                first = false;
+                if (items == null) {
+                    if (current != null) {
+                        current.flush();
+                        current = null;
+                    }
+                    if (inventoryIndex >= inventories.size()) {
+                        return true;
+                    }
+                    current = inventories.get(inventoryIndex++);
+                    if (!current.isValid()) continue;
+                    items = finder.findItems(current);
+                    slot = items.firstSlot();
+                } else if (slot < 0) {
+                    items = null;
+                    continue;
+                } else {
+                    modifyItem(slot, items.get(slot));
+                    slot = items.nextSlot(slot);
+                }
+                slowestStep = Math.max(slowestStep, System.nanoTime() - start);
+            }
+        } catch (Throwable t) {
+            t.printStackTrace();
+            ctx.sendError(new LiteralText("internal error"));
+            failed = true;
+            return true;
+        } finally {
+            // a deferred job that stops in the middle of an inventory sends what it wrote so far
+            if (current != null) {
+                current.flush();
+            }
+            nanos += System.nanoTime() - runStart;
+        }
+    }
+
+    private void modifyItem(int slot, ItemStack original) {
+        if (original.isEmpty()) return;
+        // a deferred job may resume after the inventory has changed, in which case the slot is left alone.
+        // some slots (like the chest of a donkey) return a new stack every time, so an equal stack counts as unchanged too
+        if (deferred) {
+            ItemStack live = current.getItem(slot);
+            if (live != original && (live == null || !ItemStack.areEqual(live,original))) return;
+        }
+        scanned++;
+        ItemStack stack = memo.apply(original, current, slot, errors);
+        if (stack == null) return;
+        // only slots whose contents really changed are written back
+        if (stack == original) return;
+        current.setItem(slot, stack);
+        undo.record(current, slot, original, stack);
+        modified++;
+    }
+
+    /**
+     * Reports the result of the job to the command source.
+     * @return the amount of modified items
+     */
+    public int finish() {
+        metrics.record(scanned,modified,failed ? errors.getCount() + 1 : errors.getCount(),nanos);
+        errors.report(ctx);
+        UndoJournal.commit(ctx,undo);
+        if (failed) {
+            return 0;
+        }
+        return report(ctx,plan,modified);
+    }
+
+    static int report(ModifyExecuteContext ctx, ModifyActionType.Plan plan, int modified) {
+        if (modified == 0) {
+            ctx.sendError(new TranslatableText("commands.modifyitem.failed.no_items"));
+        } else {
+            ctx.sendFeedback(plan.getSuccessMessage(modified));
+        }
+        return modified;
+    }
+
+    public int getInventoryCount() {
+        return inventories.size();
+    }
+
+    public long getTickBudgetNanos() {
+        return tickBudgetNanos;
+    }
+}
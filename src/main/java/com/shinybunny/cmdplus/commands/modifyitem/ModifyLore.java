@@ -3,10 +3,8 @@ package com.shinybunny.cmdplus.commands.modifyitem;
 import com.mojang.brigadier.Command;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.builder.ArgumentBuilder;
-import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
 import com.shinybunny.cmdplus.commands.ArgumentKey;
 import net.minecraft.command.arguments.TextArgumentType;
-import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.StringTag;
@@ -14,15 +12,13 @@ import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.text.Text;
 import net.minecraft.text.TranslatableText;
 
+import java.util.function.IntFunction;
+
 public class ModifyLore implements ModifyActionType<ModifyLore.Mode> {
 
     private static final ArgumentKey<Text> TEXT = ArgumentKey.make("text", TextArgumentType::text, TextArgumentType::getTextArgument);
     private static final ArgumentKey<Integer> INDEX = ArgumentKey.make("index", ()-> IntegerArgumentType.integer(-1), IntegerArgumentType::getInteger);
 
-    private static final DynamicCommandExceptionType INDEX_OUT_OF_BOUND = new DynamicCommandExceptionType((i)->{
-        return new TranslatableText("commands.modifyitem.failed.lore.index",i);
-    });
-
     @Override
     public String getName() {
         return "lore";
@@ -41,30 +37,29 @@ public class ModifyLore implements ModifyActionType<ModifyLore.Mode> {
             }
 
             @Override
-            public void modify(ModifyExecuteContext ctx, ListTag lore) throws Exception {
+            public Plan compile(ModifyExecuteContext ctx) {
                 Text line = ctx.get(TEXT);
                 int index = ctx.get(INDEX,-1);
-
-                if (index >= lore.size()) {
-                    throw INDEX_OUT_OF_BOUND.create(index);
-                }
-
                 StringTag tag = StringTag.of(Text.Serializer.toJson(line));
-                if (index == -1) {
-                    lore.add(tag);
-                } else {
-                    lore.add(index,tag);
-                }
-            }
-
-            @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                int index = ctx.get(INDEX,-1);
-                if (index == -1) {
-                    return new TranslatableText("commands.modifyitem.success.lore.add",ctx.get(TEXT),itemCount);
-                } else {
-                    return new TranslatableText("commands.modifyitem.success.lore.insert",ctx.get(TEXT),index,itemCount);
-                }
+                Outcome outOfBounds = indexOutOfBounds(index);
+                return plan(lore->{
+                    if (index >= lore.size()) {
+                        return outOfBounds;
+                    }
+
+                    if (index == -1) {
+                        lore.add(tag);
+                    } else {
+                        lore.add(index,tag);
+                    }
+                    return Outcome.MODIFIED;
+                },itemCount->{
+                    if (index == -1) {
+                        return new TranslatableText("commands.modifyitem.success.lore.add",line,itemCount);
+                    } else {
+                        return new TranslatableText("commands.modifyitem.success.lore.insert",line,index,itemCount);
+                    }
+                });
             }
         },
         SET {
@@ -74,20 +69,22 @@ public class ModifyLore implements ModifyActionType<ModifyLore.Mode> {
             }
 
             @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return new TranslatableText("commands.modifyitem.success.lore.set",ctx.get(TEXT),ctx.get(INDEX),itemCount);
-            }
-
-            @Override
-            protected void modify(ModifyExecuteContext ctx, ListTag lore) throws Exception {
+            public Plan compile(ModifyExecuteContext ctx) {
                 Text line = ctx.get(TEXT);
                 int index = ctx.get(INDEX);
-
-                if (index < 0 || index >= lore.size()) {
-                    throw INDEX_OUT_OF_BOUND.create(index);
-                }
-
-                lore.setTag(index,StringTag.of(Text.Serializer.toJson(line)));
+                StringTag tag = StringTag.of(Text.Serializer.toJson(line));
+                Outcome outOfBounds = indexOutOfBounds(index);
+                return plan(lore->{
+                    if (index < 0 || index >= lore.size()) {
+                        return outOfBounds;
+                    }
+
+                    if (lore.getString(index).equals(tag.asString())) {
+                        return Outcome.UNCHANGED;
+                    }
+                    lore.setTag(index,tag);
+                    return Outcome.MODIFIED;
+                },itemCount->new TranslatableText("commands.modifyitem.success.lore.set",line,index,itemCount));
             }
         },
         REMOVE {
@@ -97,13 +94,17 @@ public class ModifyLore implements ModifyActionType<ModifyLore.Mode> {
             }
 
             @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return new TranslatableText("commands.modifyitem.success.lore.remove",ctx.get(INDEX),itemCount);
-            }
-
-            @Override
-            protected void modify(ModifyExecuteContext ctx, ListTag lore) throws Exception {
-                lore.method_10536(ctx.get(INDEX));
+            public Plan compile(ModifyExecuteContext ctx) {
+                int index = ctx.get(INDEX);
+                Outcome outOfBounds = indexOutOfBounds(index);
+                return plan(lore->{
+                    if (index < 0 || index >= lore.size()) {
+                        return outOfBounds;
+                    }
+
+                    lore.method_10536(index);
+                    return Outcome.MODIFIED;
+                },itemCount->new TranslatableText("commands.modifyitem.success.lore.remove",index,itemCount));
             }
         },
         CLEAR {
@@ -113,29 +114,49 @@ public class ModifyLore implements ModifyActionType<ModifyLore.Mode> {
             }
 
             @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return new TranslatableText("commands.modifyitem.success.lore.clear",itemCount);
-            }
-
-            @Override
-            protected void modify(ModifyExecuteContext ctx, ListTag lore) throws Exception {
-                lore.clear();
+            public Plan compile(ModifyExecuteContext ctx) {
+                return plan(lore->{
+                    if (lore.isEmpty()) {
+                        return Outcome.UNCHANGED;
+                    }
+                    lore.clear();
+                    return Outcome.MODIFIED;
+                },itemCount->new TranslatableText("commands.modifyitem.success.lore.clear",itemCount));
             }
         };
 
-        protected abstract void modify(ModifyExecuteContext ctx, ListTag lore) throws Exception;
+        /**
+         * Wraps a lore edit into a plan. The edit receives the live lore list of the item, and a new list is only attached to the item if it didn't
+         * have one and the edit changed it.
+         */
+        protected static Plan plan(LoreEdit edit, IntFunction<Text> successMessage) {
+            return Plan.of(item->{
+                CompoundTag display = item.getSubTag("display");
+                if (display != null && display.contains("Lore",9)) {
+                    return edit.apply(display.getList("Lore",8));
+                }
+                ListTag lore = new ListTag();
+                Outcome outcome = edit.apply(lore);
+                if (outcome == Outcome.MODIFIED) {
+                    item.getOrCreateSubTag("display").put("Lore",lore);
+                }
+                return outcome;
+            },successMessage);
+        }
 
-        @Override
-        public void modify(ModifyExecuteContext ctx, ItemStack item) throws Exception {
-            CompoundTag display = item.getSubTag("display");
-            if (display == null) {
-                display = new CompoundTag();
-            }
-            ListTag lore = display.getList("Lore",8);
-            modify(ctx,lore);
-            display.put("Lore",lore);
-            item.putSubTag("display",display);
+        private static Outcome indexOutOfBounds(int index) {
+            return Outcome.skip(item->new TranslatableText("commands.modifyitem.failed.lore.index",index));
         }
     }
 
+    @FunctionalInterface
+    protected interface LoreEdit {
+
+        /**
+         * @return whether the lore list was changed, or why the item was skipped
+         */
+        Outcome apply(ListTag lore);
+
+    }
+
 }
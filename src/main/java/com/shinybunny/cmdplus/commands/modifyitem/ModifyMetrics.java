@@ -0,0 +1,169 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of modifyitem executions, per action, mode and inventory type.
+ * Jobs count their items locally and record once when they finish, so nothing is shared in the per-item loop.
+ */
+public class ModifyMetrics {
+
+    private static final Map<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+    /**
+     * @param action the action and mode, e.g. <code>enchantment add</code>, or several of them joined with <code>+</code> for chains
+     */
+    public static Entry get(String action, ModifyItemCommand.InventoryType inventoryType) {
+        return ENTRIES.computeIfAbsent(getName(action, inventoryType), Entry::new);
+    }
+
+    /**
+     * @return the entry of the action on the inventory type, or null if it never ran, without creating one
+     */
+    public static Entry find(String action, ModifyItemCommand.InventoryType inventoryType) {
+        return ENTRIES.get(getName(action, inventoryType));
+    }
+
+    /**
+     * @return the name of the entry of the action on the inventory type
+     */
+    public static String getName(String action, ModifyItemCommand.InventoryType inventoryType) {
+        return action + " " + inventoryType.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return all entries, the ones that took the most time first
+     */
+    public static List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>(ENTRIES.values());
+        entries.sort(Comparator.comparingLong(Entry::getTotalNanos).reversed());
+        return entries;
+    }
+
+    public static void reset() {
+        ENTRIES.clear();
+    }
+
+    public static JsonArray toJson() {
+        JsonArray array = new JsonArray();
+        for (Entry entry : getEntries()) {
+            array.add(entry.toJson());
+        }
+        return array;
+    }
+
+    public static class Entry {
+        /**
+         * Bucket <code>i</code> counts executions that took less than <code>2^i</code> microseconds (and at least <code>2^(i-1)</code>).
+         * The last bucket also counts everything slower.
+         */
+        private static final int BUCKETS = 24;
+
+        private final String name;
+        private final LongAdder executions = new LongAdder();
+        private final LongAdder scanned = new LongAdder();
+        private final LongAdder modified = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLongArray latency = new AtomicLongArray(BUCKETS);
+
+        private Entry(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Records one finished execution.
+         * @param nanos the time the execution spent on the server thread
+         */
+        public void record(int scanned, int modified, int errors, long nanos) {
+            executions.increment();
+            this.scanned.add(scanned);
+            this.modified.add(modified);
+            this.errors.add(errors);
+            totalNanos.add(nanos);
+            long micros = nanos / 1000;
+            int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+            latency.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getExecutions() {
+            return executions.sum();
+        }
+
+        public long getScanned() {
+            return scanned.sum();
+        }
+
+        public long getModified() {
+            return modified.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        /**
+         * @return the average time spent per scanned item, or 0 if no items were scanned yet
+         */
+        public double getNanosPerItem() {
+            long scanned = getScanned();
+            return scanned == 0 ? 0 : (double) getTotalNanos() / scanned;
+        }
+
+        /**
+         * @param fraction between 0 and 1, e.g. 0.99 for the 99th percentile
+         * @return the upper bound of the histogram bucket of that percentile, in microseconds
+         */
+        public long getPercentileMicros(double fraction) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += latency.get(i);
+            }
+            long target = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += latency.get(i);
+                if (seen >= target && seen > 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+
+        public JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("name", name);
+            json.addProperty("executions", getExecutions());
+            json.addProperty("scanned", getScanned());
+            json.addProperty("modified", getModified());
+            json.addProperty("errors", getErrors());
+            json.addProperty("totalNanos", getTotalNanos());
+            json.addProperty("p50Micros", getPercentileMicros(0.5));
+            json.addProperty("p99Micros", getPercentileMicros(0.99));
+            JsonArray histogram = new JsonArray();
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram.add(latency.get(i));
+            }
+            json.add("latencyMicrosLog2", histogram);
+            return json;
+        }
+    }
+}
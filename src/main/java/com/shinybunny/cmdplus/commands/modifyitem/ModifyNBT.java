@@ -4,10 +4,8 @@ import com.mojang.brigadier.Command;
 import com.mojang.brigadier.builder.ArgumentBuilder;
 import com.shinybunny.cmdplus.commands.ArgumentKey;
 import net.minecraft.command.arguments.NbtCompoundTagArgumentType;
-import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.server.command.ServerCommandSource;
-import net.minecraft.text.Text;
 import net.minecraft.text.TranslatableText;
 
 public class ModifyNBT implements ModifyActionType<ModifyNBT.Mode> {
@@ -27,26 +25,22 @@ public class ModifyNBT implements ModifyActionType<ModifyNBT.Mode> {
     protected enum Mode implements ModifyActionType.ActionMode {
         MERGE {
             @Override
-            public void modify(ModifyExecuteContext ctx, ItemStack item) throws Exception {
+            public Plan compile(ModifyExecuteContext ctx) {
                 CompoundTag nbt = ctx.get(NBT);
-                item.setTag(item.getOrCreateTag().method_10553().copyFrom(nbt));
-            }
-
-            @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return new TranslatableText("commands.modifyitem.success.nbt.merge",ctx.get(NBT).toText(),itemCount);
+                return Plan.of(item->{
+                    item.setTag(item.getOrCreateTag().method_10553().copyFrom(nbt));
+                    return Outcome.MODIFIED;
+                },itemCount->new TranslatableText("commands.modifyitem.success.nbt.merge",nbt.toText(),itemCount));
             }
         },
         SET {
             @Override
-            public void modify(ModifyExecuteContext ctx, ItemStack item) throws Exception {
+            public Plan compile(ModifyExecuteContext ctx) {
                 CompoundTag nbt = ctx.get(NBT);
-                item.setTag(nbt);
-            }
-
-            @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return new TranslatableText("commands.modifyitem.success.nbt.set",itemCount,ctx.get(NBT).toText());
+                return Plan.of(item->{
+                    item.setTag(nbt.method_10553());
+                    return Outcome.MODIFIED;
+                },itemCount->new TranslatableText("commands.modifyitem.success.nbt.set",itemCount,nbt.toText()));
             }
         },
         CLEAR {
@@ -56,13 +50,14 @@ public class ModifyNBT implements ModifyActionType<ModifyNBT.Mode> {
             }
 
             @Override
-            public void modify(ModifyExecuteContext ctx, ItemStack item) throws Exception {
-                item.setTag(null);
-            }
-
-            @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return new TranslatableText("commands.modifyitem.success.nbt.clear",itemCount);
+            public Plan compile(ModifyExecuteContext ctx) {
+                return Plan.of(item->item.getTag() != null,item->{
+                    if (item.getTag() == null) {
+                        return Outcome.UNCHANGED;
+                    }
+                    item.setTag(null);
+                    return Outcome.MODIFIED;
+                },itemCount->new TranslatableText("commands.modifyitem.success.nbt.clear",itemCount));
             }
         };
 
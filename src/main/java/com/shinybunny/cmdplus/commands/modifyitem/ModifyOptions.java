@@ -0,0 +1,108 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import com.mojang.brigadier.ResultConsumer;
+import net.minecraft.server.command.ServerCommandSource;
+
+/**
+ * Execution options of a modifyitem command, given as literals right after <code>/modifyitem</code> that redirect back to it,
+ * e.g. <code>/modifyitem deferred 5 entity @e ...</code>.
+ * <p>
+ * The options are carried by the copy of the command source the redirect hands over to the rest of the command, see {@link ModifySource}.
+ */
+public class ModifyOptions {
+
+    public static final ModifyOptions DEFAULT = new ModifyOptions(-1,false,false,false);
+
+    private static final ResultConsumer<ServerCommandSource> NO_CONSUMER = (ctx, success, result) -> {};
+
+    /**
+     * The time a deferred execution may take per tick, or -1 to run everything immediately
+     */
+    private final long tickBudgetNanos;
+    /**
+     * Whether the modified stacks are computed on worker threads
+     */
+    private final boolean parallel;
+    /**
+     * Whether the success feedback is only sent to the source instead of being broadcast to all operators and the log
+     */
+    private final boolean quiet;
+    /**
+     * Whether the items are only matched and counted, without modifying anything
+     */
+    private final boolean dryRun;
+
+    private ModifyOptions(long tickBudgetNanos, boolean parallel, boolean quiet, boolean dryRun) {
+        this.tickBudgetNanos = tickBudgetNanos;
+        this.parallel = parallel;
+        this.quiet = quiet;
+        this.dryRun = dryRun;
+    }
+
+    public static ModifyOptions get(ServerCommandSource source) {
+        // the mixin isn't applied outside the game, e.g. in the benchmarks
+        if (!(source instanceof ModifySource)) {
+            return DEFAULT;
+        }
+        ModifyOptions options = ModifySource.of(source).getModifyOptions();
+        return options == null ? DEFAULT : options;
+    }
+
+    /**
+     * @return a copy of the source that carries the given options
+     */
+    public static ServerCommandSource with(ServerCommandSource source, ModifyOptions options) {
+        ServerCommandSource copy = copySource(source);
+        ModifySource.of(copy).setModifyOptions(options);
+        return copy;
+    }
+
+    /**
+     * @return a distinct source instance that behaves exactly like the given one and keeps its options, so more state can be set on it
+     */
+    public static ServerCommandSource copySource(ServerCommandSource source) {
+        ServerCommandSource copy = source.mergeConsumers(NO_CONSUMER,(consumer, noop) -> (c, success, result) -> {
+            if (consumer != null) {
+                consumer.onCommandComplete(c,success,result);
+            }
+        });
+        ModifySource.of(copy).setModifyOptions(ModifySource.of(source).getModifyOptions());
+        return copy;
+    }
+
+    public ModifyOptions deferred(int tickBudgetMillis) {
+        return new ModifyOptions(tickBudgetMillis * 1_000_000L,false,quiet,dryRun);
+    }
+
+    public ModifyOptions parallel() {
+        return new ModifyOptions(-1,true,quiet,dryRun);
+    }
+
+    public ModifyOptions quiet() {
+        return new ModifyOptions(tickBudgetNanos,parallel,true,dryRun);
+    }
+
+    public ModifyOptions dryRun() {
+        return new ModifyOptions(tickBudgetNanos,parallel,quiet,true);
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public boolean isQuiet() {
+        return quiet;
+    }
+
+    public boolean isDeferred() {
+        return tickBudgetNanos > 0;
+    }
+
+    public long getTickBudgetNanos() {
+        return tickBudgetNanos;
+    }
+}
@@ -0,0 +1,35 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import net.minecraft.server.command.ServerCommandSource;
+
+/**
+ * The state of a modifyitem execution, carried by the copies of the command source that the modifyitem redirects hand over to the rest of the command.
+ * Every {@link ServerCommandSource} implements it through a mixin. The state is only ever set on fresh copies, so it never leaks into other executions.
+ */
+public interface ModifySource {
+
+    /**
+     * @return the options given before this point of the command, or null if there were none
+     */
+    ModifyOptions getModifyOptions();
+
+    void setModifyOptions(ModifyOptions options);
+
+    /**
+     * @return the inventory type and slot finder of a combination that redirected to the action nodes, or null
+     */
+    ModifyContext getModifySelection();
+
+    void setModifySelection(ModifyContext selection);
+
+    /**
+     * @return the actions chained with <code>and</code> before this point of the command, or null
+     */
+    ActionCommand.Chain getPendingChain();
+
+    void setPendingChain(ActionCommand.Chain chain);
+
+    static ModifySource of(ServerCommandSource source) {
+        return (ModifySource) source;
+    }
+}
@@ -2,27 +2,50 @@ package com.shinybunny.cmdplus.commands.modifyitem;
 
 import com.mojang.brigadier.Command;
 import com.mojang.brigadier.builder.ArgumentBuilder;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
-import com.shinybunny.cmdplus.ThrowableConsumer;
 import com.shinybunny.cmdplus.commands.ArgumentKey;
 import net.minecraft.command.arguments.BlockStateArgument;
 import net.minecraft.command.arguments.BlockStateArgumentType;
+import net.minecraft.command.arguments.IdentifierArgumentType;
 import net.minecraft.item.BlockItem;
 import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.StringTag;
-import net.minecraft.nbt.Tag;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.CommandSource;
 import net.minecraft.server.command.ServerCommandSource;
-import net.minecraft.text.Text;
+import net.minecraft.tag.BlockTags;
 import net.minecraft.text.TranslatableText;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.registry.Registry;
+
+import java.util.*;
+import java.util.function.Function;
 
 public class ModifyUsage implements ModifyActionType<ModifyUsage.Mode> {
 
+    /**
+     * The maximum amount of blocks that can be added or removed in one command
+     */
+    private static final int MAX_BLOCKS = 8;
+
     private static final ArgumentKey<Type> USAGE_TYPE = ArgumentKey.dummy();
-    private static final ArgumentKey<BlockStateArgument> BLOCK = ArgumentKey.make("block", BlockStateArgumentType::blockState, BlockStateArgumentType::getBlockState);
+    private static final List<ArgumentKey<BlockStateArgument>> BLOCKS = new ArrayList<>();
+    private static final ArgumentKey<Identifier> TAG = ArgumentKey.make("tag", IdentifierArgumentType::identifier, IdentifierArgumentType::getIdentifier);
+
+    static {
+        for (int i = 0; i < MAX_BLOCKS; i++) {
+            BLOCKS.add(ArgumentKey.make(i == 0 ? "block" : "block" + (i + 1), BlockStateArgumentType::blockState, BlockStateArgumentType::getBlockState));
+        }
+    }
 
-    private static final DynamicCommandExceptionType NOT_BLOCK_ITEM = new DynamicCommandExceptionType(item->{
-        return new TranslatableText("commands.modifyitem.failed.placeOn.not_block",item);
+    private static final Outcome NOT_BLOCK_ITEM = Outcome.skip(item->{
+        return new TranslatableText("commands.modifyitem.failed.placeOn.not_block",item.getName());
+    });
+    private static final DynamicCommandExceptionType UNKNOWN_TAG = new DynamicCommandExceptionType(tag->{
+        return new TranslatableText("commands.modifyitem.failed.usage.unknown_tag",tag);
     });
 
     private Type type;
@@ -50,53 +73,45 @@ public class ModifyUsage implements ModifyActionType<ModifyUsage.Mode> {
         ADD {
             @Override
             public ArgumentBuilder<ServerCommandSource, ?> buildArguments(Command<ServerCommandSource> execute) {
-                return argument(BLOCK,execute);
+                return blockArguments(execute);
             }
 
             @Override
-            public void modify(ModifyExecuteContext ctx, ItemStack item) throws Exception {
-                BlockStateArgument block = ctx.get(BLOCK);
-                Type type = ctx.get(USAGE_TYPE);
-                type.validate(item);
-                ListTag list = item.getOrCreateTag().getList(type.tagName,8);
-                list.add(StringTag.of(block.getBlockState().toString()));
-                item.putSubTag(type.tagName,list);
+            public Plan compile(ModifyExecuteContext ctx) {
+                return add(ctx.get(USAGE_TYPE),getBlockKeys(ctx));
+            }
+        },
+        ADD_TAG {
+            @Override
+            public ArgumentBuilder<ServerCommandSource, ?> buildArguments(Command<ServerCommandSource> execute) {
+                return tagArgument(execute);
             }
 
             @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return null;
+            public Plan compile(ModifyExecuteContext ctx) throws CommandSyntaxException {
+                return add(ctx.get(USAGE_TYPE),getTagKey(ctx));
             }
         },
         REMOVE {
             @Override
             public ArgumentBuilder<ServerCommandSource, ?> buildArguments(Command<ServerCommandSource> execute) {
-                return argument(BLOCK,execute);
+                return blockArguments(execute);
             }
 
             @Override
-            public void modify(ModifyExecuteContext ctx, ItemStack item) throws Exception {
-                BlockStateArgument block = ctx.get(BLOCK);
-                Type type = ctx.get(USAGE_TYPE);
-                type.validate(item);
-                ListTag list = item.getOrCreateTag().getList(type.tagName,8);
-                int removeIndex = -1;
-                for (int i = 0; i < list.size(); i++) {
-                    Tag t = list.method_10534(i);
-                    if (t.asString().equals(block.getBlockState().toString())) {
-                        removeIndex = i;
-                        break;
-                    }
-                }
-                if (removeIndex != -1) {
-                    list.method_10536(removeIndex);
-                    item.putSubTag(type.tagName,list);
-                }
+            public Plan compile(ModifyExecuteContext ctx) {
+                return remove(ctx.get(USAGE_TYPE),getBlockKeys(ctx));
+            }
+        },
+        REMOVE_TAG {
+            @Override
+            public ArgumentBuilder<ServerCommandSource, ?> buildArguments(Command<ServerCommandSource> execute) {
+                return tagArgument(execute);
             }
 
             @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
-                return null;
+            public Plan compile(ModifyExecuteContext ctx) throws CommandSyntaxException {
+                return remove(ctx.get(USAGE_TYPE),getTagKey(ctx));
             }
         },
         CLEAR {
@@ -106,39 +121,191 @@ public class ModifyUsage implements ModifyActionType<ModifyUsage.Mode> {
             }
 
             @Override
-            public void modify(ModifyExecuteContext ctx, ItemStack item) throws Exception {
+            public Plan compile(ModifyExecuteContext ctx) {
                 Type type = ctx.get(USAGE_TYPE);
-                type.validate(item);
-                item.removeSubTag(type.tagName);
+                return Plan.of(item->type.validate(item) != null || getList(item,type) != null,item->{
+                    Outcome invalid = type.validate(item);
+                    if (invalid != null) {
+                        return invalid;
+                    }
+                    if (getList(item,type) == null) {
+                        return Outcome.UNCHANGED;
+                    }
+                    item.removeSubTag(type.tagName);
+                    return Outcome.MODIFIED;
+                },itemCount->new TranslatableText("commands.modifyitem.success.usage.clear",type.tagName,itemCount));
+            }
+        };
+
+        private static ArgumentBuilder<ServerCommandSource, ?> blockArguments(Command<ServerCommandSource> execute) {
+            ArgumentBuilder<ServerCommandSource, ?> builder = null;
+            for (int i = BLOCKS.size() - 1; i >= 0; i--) {
+                ArgumentKey<BlockStateArgument> key = BLOCKS.get(i);
+                ArgumentBuilder<ServerCommandSource, ?> arg = CommandManager.argument(key.getName(),key.createType()).executes(execute);
+                if (builder != null) {
+                    arg.then(builder);
+                }
+                builder = arg;
             }
+            return builder;
+        }
 
-            @Override
-            public Text getSuccessMessage(ModifyExecuteContext ctx, int itemCount) {
+        private static ArgumentBuilder<ServerCommandSource, ?> tagArgument(Command<ServerCommandSource> execute) {
+            return CommandManager.argument(TAG.getName(),TAG.createType())
+                    .suggests((ctx,builder)->CommandSource.suggestIdentifiers(BlockTags.getContainer().getKeys(),builder))
+                    .executes(execute);
+        }
+
+        /**
+         * @return the usage entries of all the block arguments, in order and without duplicates.
+         * The block id is normalized, and any block state properties and NBT are kept as the user typed them, e.g. <code>minecraft:stone[snowy=true]</code>.
+         */
+        private static Set<String> getBlockKeys(ModifyExecuteContext ctx) {
+            Set<String> keys = new LinkedHashSet<>();
+            for (ArgumentKey<BlockStateArgument> key : BLOCKS) {
+                BlockStateArgument block = ctx.get(key);
+                if (block == null) break;
+                String id = Registry.BLOCK.getId(block.getBlockState().getBlock()).toString();
+                String input = ItemMatcher.getArgumentInput(ctx.getCmdCtx(),key.getName());
+                int predicate = input == null ? -1 : indexOfPredicate(input);
+                keys.add(predicate < 0 ? id : id + input.substring(predicate));
+            }
+            return keys;
+        }
+
+        /**
+         * @return the index the properties or NBT of a block argument start at, or -1 if it has neither
+         */
+        private static int indexOfPredicate(String input) {
+            for (int i = 0; i < input.length(); i++) {
+                char c = input.charAt(i);
+                if (c == '[' || c == '{') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static Set<String> getTagKey(ModifyExecuteContext ctx) throws CommandSyntaxException {
+            Identifier tag = ctx.get(TAG);
+            if (BlockTags.getContainer().get(tag) == null) {
+                throw UNKNOWN_TAG.create(tag);
+            }
+            return Collections.singleton("#" + tag);
+        }
+
+        /**
+         * Adds the keys that are not already present to the usage list. Duplicate entries already in the list are dropped along the way,
+         * so the list behaves as an ordered set.
+         */
+        private static Plan add(Type type, Set<String> keys) {
+            List<StringTag> tags = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                tags.add(StringTag.of(key));
+            }
+            return Plan.of(item->{
+                if (type.validate(item) != null) return true;
+                ListTag list = getList(item,type);
+                Set<String> present = new HashSet<>();
+                for (int i = 0; list != null && i < list.size(); i++) {
+                    if (!present.add(list.getString(i))) return true;
+                }
+                return !present.containsAll(keys);
+            },item->{
+                Outcome invalid = type.validate(item);
+                if (invalid != null) {
+                    return invalid;
+                }
+                ListTag list = getList(item,type);
+                boolean attached = list != null;
+                if (list == null) {
+                    list = new ListTag();
+                }
+                boolean changed = false;
+                Set<String> present = new HashSet<>();
+                for (int i = 0; i < list.size(); i++) {
+                    if (!present.add(list.getString(i))) {
+                        list.method_10536(i--);
+                        changed = true;
+                    }
+                }
+                boolean added = false;
+                for (StringTag tag : tags) {
+                    if (present.add(tag.asString())) {
+                        list.add(tag);
+                        added = true;
+                    }
+                }
+                if (added && !attached) {
+                    item.getOrCreateTag().put(type.tagName,list);
+                }
+                return changed || added ? Outcome.MODIFIED : Outcome.UNCHANGED;
+            },itemCount->new TranslatableText("commands.modifyitem.success.usage.add",String.join(", ",keys),type.tagName,itemCount));
+        }
+
+        /**
+         * Removes every occurrence of the keys from the usage list, and the list itself if nothing is left in it.
+         */
+        private static Plan remove(Type type, Set<String> keys) {
+            return Plan.of(item->{
+                if (type.validate(item) != null) return true;
+                ListTag list = getList(item,type);
+                if (list == null) return false;
+                if (list.isEmpty()) return true;
+                for (int i = 0; i < list.size(); i++) {
+                    if (keys.contains(list.getString(i))) return true;
+                }
+                return false;
+            },item->{
+                Outcome invalid = type.validate(item);
+                if (invalid != null) {
+                    return invalid;
+                }
+                ListTag list = getList(item,type);
+                if (list == null) return Outcome.UNCHANGED;
+                boolean changed = false;
+                for (int i = list.size() - 1; i >= 0; i--) {
+                    if (keys.contains(list.getString(i))) {
+                        list.method_10536(i);
+                        changed = true;
+                    }
+                }
+                if (list.isEmpty()) {
+                    item.removeSubTag(type.tagName);
+                    changed = true;
+                }
+                return changed ? Outcome.MODIFIED : Outcome.UNCHANGED;
+            },itemCount->new TranslatableText("commands.modifyitem.success.usage.remove",String.join(", ",keys),type.tagName,itemCount));
+        }
+
+        private static ListTag getList(ItemStack item, Type type) {
+            CompoundTag tag = item.getTag();
+            if (tag == null || !tag.contains(type.tagName,9)) {
                 return null;
             }
-        };
+            return tag.getList(type.tagName,8);
+        }
     }
 
     public enum Type {
-        CAN_BREAK("destroy","CanDestroy",item->{}),
-        CAN_PLACE_ON("placeOn","CanPlaceOn",item->{
-            if (!(item.getItem() instanceof BlockItem)) {
-                throw NOT_BLOCK_ITEM.create(item.getName());
-            }
-        });
+        CAN_BREAK("destroy","CanDestroy",item->null),
+        CAN_PLACE_ON("placeOn","CanPlaceOn",item->item.getItem() instanceof BlockItem ? null : NOT_BLOCK_ITEM);
 
         private final String id;
         private final String tagName;
-        private final ThrowableConsumer<ItemStack, Exception> validate;
+        private final Function<ItemStack, Outcome> validate;
 
-        Type(String id, String tagName, ThrowableConsumer<ItemStack,Exception> validate) {
+        Type(String id, String tagName, Function<ItemStack, Outcome> validate) {
             this.id = id;
             this.tagName = tagName;
             this.validate = validate;
         }
 
-        public void validate(ItemStack stack) throws Exception {
-            validate.accept(stack);
+        /**
+         * @return the outcome to skip the item with if the usage list doesn't apply to it, or null if it does
+         */
+        public Outcome validate(ItemStack stack) {
+            return validate.apply(stack);
         }
     }
 }
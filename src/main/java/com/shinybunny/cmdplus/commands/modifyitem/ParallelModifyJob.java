@@ -0,0 +1,124 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import com.shinybunny.cmdplus.commands.ItemSlots;
+import net.minecraft.item.ItemStack;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.text.LiteralText;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Applies a plan in three phases: the matching stacks are snapshotted on the server thread, the modified stacks are computed from the snapshots
+ * on a bounded worker pool, and the results are written back on the server thread in a later tick,
+ * but only to slots that still hold the exact stack that was snapshotted.
+ * <p>
+ * Plans are immutable and only ever touch the stack they are given, which is what makes it safe to run them off-thread.
+ */
+public class ParallelModifyJob {
+
+    private static final ForkJoinPool WORKERS = new ForkJoinPool(Math.max(1,Runtime.getRuntime().availableProcessors() - 1),pool->{
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("CommandsPlus Modify Worker-" + thread.getPoolIndex());
+        return thread;
+    },null,false);
+
+    private final ModifyExecuteContext ctx;
+    private final ModifyActionType.Plan plan;
+    private final ModifyMetrics.Entry metrics;
+    private final List<Snapshot> snapshots = new ArrayList<>();
+    /**
+     * The time spent on the server thread, snapshotting and applying. The time the workers take is not counted
+     */
+    private long nanos;
+
+    public ParallelModifyJob(ModifyExecuteContext ctx, ModifyActionType.Plan plan, ModifyMetrics.Entry metrics) {
+        this.ctx = ctx;
+        this.plan = plan;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Snapshots the matching stacks and starts computing their modified versions.
+     * @return the amount of stacks that will be processed
+     */
+    public int start(ModifyItemCommand.SlotFinder finder, List<ModifyItemCommand.InventoryHandle> inventories) {
+        long start = System.nanoTime();
+        for (ModifyItemCommand.InventoryHandle h : inventories) {
+            ItemSlots items = finder.findItems(h);
+            for (int slot = items.firstSlot(); slot >= 0; slot = items.nextSlot(slot)) {
+                ItemStack original = items.get(slot);
+                if (original.isEmpty()) continue;
+                snapshots.add(new Snapshot(h,slot,original));
+            }
+        }
+        MinecraftServer server = ctx.getCmdCtx().getSource().getMinecraftServer();
+        PlanMemo memo = new PlanMemo(plan);
+        CompletableFuture.runAsync(()->snapshots.parallelStream().forEach(s->s.compute(memo)),WORKERS)
+                .whenComplete((v,t)->server.execute(()->apply(t)));
+        nanos = System.nanoTime() - start;
+        return snapshots.size();
+    }
+
+    private void apply(Throwable error) {
+        long start = System.nanoTime();
+        if (error != null) {
+            error.printStackTrace();
+            ctx.sendError(new LiteralText("internal error"));
+            metrics.record(snapshots.size(),0,1,nanos + System.nanoTime() - start);
+            return;
+        }
+        int modified = 0;
+        ErrorSummary errors = new ErrorSummary();
+        UndoJournal.Entry undo = new UndoJournal.Entry();
+        Set<ModifyItemCommand.InventoryHandle> written = new HashSet<>();
+        for (Snapshot s : snapshots) {
+            if (s.memoResult.isFailed()) {
+                s.memoResult.report(s.inventory,s.slot,s.snapshot,errors);
+                continue;
+            }
+            if (s.result == s.snapshot) continue;
+            // the slot must still hold a stack equal to the one we computed the result from. It doesn't have to be the same instance,
+            // since some slots (like the chest of a donkey) return a new stack every time
+            if (!s.inventory.isValid()) continue;
+            ItemStack live = s.inventory.getItem(s.slot);
+            if (live == null || !ItemStack.areEqual(live,s.snapshot)) continue;
+            s.inventory.setItem(s.slot,s.result);
+            undo.record(s.inventory,s.slot,live,s.result);
+            written.add(s.inventory);
+            modified++;
+        }
+        written.forEach(ModifyItemCommand.InventoryHandle::flush);
+        metrics.record(snapshots.size(),modified,errors.getCount(),nanos + System.nanoTime() - start);
+        errors.report(ctx);
+        UndoJournal.commit(ctx,undo);
+        ModifyJob.report(ctx,plan,modified);
+    }
+
+    private static class Snapshot {
+        private final ModifyItemCommand.InventoryHandle inventory;
+        private final int slot;
+        /**
+         * A copy of the stack taken on the server thread, which the workers compute the result from
+         */
+        private final ItemStack snapshot;
+        private PlanMemo.Result memoResult;
+        private ItemStack result;
+
+        private Snapshot(ModifyItemCommand.InventoryHandle inventory, int slot, ItemStack original) {
+            this.inventory = inventory;
+            this.slot = slot;
+            this.snapshot = original.copy();
+        }
+
+        private void compute(PlanMemo memo) {
+            memoResult = memo.get(snapshot);
+            result = memoResult.apply(snapshot);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompoundTag;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the result of a plan for every distinct item and nbt it was applied to during one execution,
+ * so stacks that only differ in their count are transformed once. Safe to use from several threads.
+ */
+public class PlanMemo {
+
+    /**
+     * Past this many distinct stacks, new results are no longer remembered, so an inventory full of unique items doesn't fill the memory.
+     */
+    private static final int MAX_ENTRIES = 4096;
+
+    private final ModifyActionType.Plan plan;
+    private final Map<Key, Result> results = new ConcurrentHashMap<>();
+
+    public PlanMemo(ModifyActionType.Plan plan) {
+        this.plan = plan;
+    }
+
+    /**
+     * Applies the plan, and adds the item to the errors if it was skipped or failed.
+     * @return a new modified stack with the count of the original, {@link ItemStack#EMPTY} if the item should be removed,
+     * the original itself if the plan doesn't change it, or null if it was skipped or failed
+     */
+    public ItemStack apply(ItemStack original, ModifyItemCommand.InventoryHandle inventory, int slot, ErrorSummary errors) {
+        Result result = get(original);
+        if (result.isFailed()) {
+            result.report(inventory,slot,original,errors);
+            return null;
+        }
+        return result.apply(original);
+    }
+
+    /**
+     * @return the result of the plan for this or an equal stack
+     */
+    public Result get(ItemStack original) {
+        Key key = new Key(original.getItem(),original.getTag());
+        Result result = results.get(key);
+        if (result == null) {
+            result = compute(original);
+            if (results.size() < MAX_ENTRIES) {
+                // the key must not share the tag of a live stack, which may still change
+                results.put(new Key(key.item,key.tag == null ? null : key.tag.method_10553()),result);
+            }
+        }
+        return result;
+    }
+
+    private Result compute(ItemStack original) {
+        ItemStack stack;
+        ModifyActionType.Outcome outcome;
+        try {
+            // items the plan leaves alone are never copied
+            if (!plan.wouldChange(original)) {
+                return new Result(null,null,null);
+            }
+            stack = original.copy();
+            outcome = plan.modify(stack);
+        } catch (RuntimeException ex) {
+            return new Result(null,null,ex);
+        }
+        if (outcome == ModifyActionType.Outcome.REMOVE) {
+            return new Result(ItemStack.EMPTY,null,null);
+        }
+        if (outcome.isSkipped()) {
+            return new Result(null,outcome,null);
+        }
+        if (outcome == ModifyActionType.Outcome.UNCHANGED || ItemStack.areEqual(original,stack)) {
+            return new Result(null,null,null);
+        }
+        return new Result(stack,null,null);
+    }
+
+    private static class Key {
+        private final Item item;
+        private final CompoundTag tag;
+        private final int hash;
+
+        private Key(Item item, CompoundTag tag) {
+            this.item = item;
+            this.tag = tag;
+            this.hash = 31 * item.hashCode() + Objects.hashCode(tag);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return hash == key.hash && item == key.item && Objects.equals(tag,key.tag);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    public static class Result {
+        /**
+         * The modified stack, or null if the plan doesn't change the item
+         */
+        private final ItemStack stack;
+        private final ModifyActionType.Outcome skipped;
+        private final RuntimeException error;
+
+        private Result(ItemStack stack, ModifyActionType.Outcome skipped, RuntimeException error) {
+            this.stack = stack;
+            this.skipped = skipped;
+            this.error = error;
+        }
+
+        /**
+         * @return whether the item was skipped or the plan failed on it
+         */
+        public boolean isFailed() {
+            return skipped != null || error != null;
+        }
+
+        public void report(ModifyItemCommand.InventoryHandle inventory, int slot, ItemStack item, ErrorSummary errors) {
+            if (skipped != null) {
+                errors.skip(inventory,slot,item,skipped);
+            } else {
+                errors.add(inventory,slot,error);
+            }
+        }
+
+        /**
+         * @return a new modified stack with the count of the original, {@link ItemStack#EMPTY} if the item should be removed,
+         * or the original itself if the plan doesn't change it
+         */
+        public ItemStack apply(ItemStack original) {
+            if (stack == null) {
+                return original;
+            }
+            if (stack.isEmpty()) {
+                return ItemStack.EMPTY;
+            }
+            ItemStack copy = stack.copy();
+            copy.setCount(original.getCount());
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.Dynamic2CommandExceptionType;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
+import com.mojang.brigadier.suggestion.Suggestions;
+import com.mojang.brigadier.suggestion.SuggestionsBuilder;
+import com.shinybunny.cmdplus.commands.ItemSlots;
+import net.minecraft.item.ItemStack;
+import net.minecraft.server.command.CommandSource;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.TranslatableText;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A set of slot ids, parsed once from slot names (as in <code>/replaceitem</code>), index ranges and wildcards joined with <code>+</code>,
+ * e.g. <code>container.0-26</code>, <code>armor.head+weapon.offhand</code> or <code>"hotbar.*"</code>.
+ * Wildcards have to be quoted, since <code>*</code> isn't allowed in unquoted strings.
+ * <p>
+ * A wildcard covers the numbered slots of its group, or all of its named slots if it has no numbered slots (<code>armor.*</code>, <code>weapon.*</code>).
+ */
+public class SlotPattern {
+
+    private static final DynamicCommandExceptionType UNKNOWN_SLOT_EXCEPTION = new DynamicCommandExceptionType(name -> {
+        return new TranslatableText("slot.unknown", name);
+    });
+    private static final Dynamic2CommandExceptionType RANGE_OUT_OF_BOUNDS_EXCEPTION = new Dynamic2CommandExceptionType((range, max) -> {
+        return new TranslatableText("commands.modifyitem.failed.slot.range", range, max);
+    });
+
+    /**
+     * The numbered slot groups, mapped to their first slot id and amount of slots
+     */
+    private static final Map<String, int[]> NUMBERED = new LinkedHashMap<>();
+    private static final Map<String, Integer> NAMED = new LinkedHashMap<>();
+
+    static {
+        NUMBERED.put("container", new int[]{0, 54});
+        NUMBERED.put("hotbar", new int[]{0, 9});
+        NUMBERED.put("inventory", new int[]{9, 27});
+        NUMBERED.put("enderchest", new int[]{200, 27});
+        NUMBERED.put("villager", new int[]{300, 8});
+        NUMBERED.put("horse", new int[]{500, 15});
+        NAMED.put("weapon", 98);
+        NAMED.put("weapon.mainhand", 98);
+        NAMED.put("weapon.offhand", 99);
+        NAMED.put("armor.head", 103);
+        NAMED.put("armor.chest", 102);
+        NAMED.put("armor.legs", 101);
+        NAMED.put("armor.feet", 100);
+        NAMED.put("horse.saddle", 400);
+        NAMED.put("horse.armor", 401);
+        NAMED.put("horse.chest", 499);
+    }
+
+    private final BitSet slots;
+    /**
+     * The slots of the pattern that were given by name (including named wildcards). They always resolve, even where the inventory doesn't list them.
+     */
+    private final BitSet named;
+    /**
+     * The only slot of the pattern, or -1 if it has more than one
+     */
+    private final int single;
+
+    private SlotPattern(BitSet slots, BitSet named) {
+        this.slots = slots;
+        this.named = named;
+        this.single = slots.cardinality() == 1 ? slots.nextSetBit(0) : -1;
+    }
+
+    public static SlotPattern parse(String input) throws CommandSyntaxException {
+        BitSet slots = new BitSet();
+        BitSet named = new BitSet();
+        for (String part : input.split("\\+", -1)) {
+            parsePart(part, slots, named);
+        }
+        return new SlotPattern(slots, named);
+    }
+
+    private static void parsePart(String part, BitSet slots, BitSet named) throws CommandSyntaxException {
+        Integer slot = NAMED.get(part);
+        if (slot != null) {
+            slots.set(slot);
+            named.set(slot);
+            return;
+        }
+        int dot = part.indexOf('.');
+        if (dot == -1) {
+            throw UNKNOWN_SLOT_EXCEPTION.create(part);
+        }
+        String group = part.substring(0, dot);
+        String selector = part.substring(dot + 1);
+        int[] numbered = NUMBERED.get(group);
+        if (selector.equals("*")) {
+            if (numbered != null) {
+                slots.set(numbered[0], numbered[0] + numbered[1]);
+                return;
+            }
+            boolean found = false;
+            for (Map.Entry<String, Integer> e : NAMED.entrySet()) {
+                if (e.getKey().startsWith(group + ".")) {
+                    slots.set(e.getValue());
+                    named.set(e.getValue());
+                    found = true;
+                }
+            }
+            if (!found) {
+                throw UNKNOWN_SLOT_EXCEPTION.create(part);
+            }
+            return;
+        }
+        if (numbered == null) {
+            throw UNKNOWN_SLOT_EXCEPTION.create(part);
+        }
+        int dash = selector.indexOf('-');
+        int from = parseIndex(dash == -1 ? selector : selector.substring(0, dash), part);
+        int to = dash == -1 ? from : parseIndex(selector.substring(dash + 1), part);
+        if (from > to || to >= numbered[1]) {
+            throw RANGE_OUT_OF_BOUNDS_EXCEPTION.create(part, numbered[1] - 1);
+        }
+        slots.set(numbered[0] + from, numbered[0] + to + 1);
+    }
+
+    private static int parseIndex(String index, String part) throws CommandSyntaxException {
+        if (index.isEmpty() || index.length() > 4) {
+            throw UNKNOWN_SLOT_EXCEPTION.create(part);
+        }
+        for (int i = 0; i < index.length(); i++) {
+            if (!Character.isDigit(index.charAt(i))) {
+                throw UNKNOWN_SLOT_EXCEPTION.create(part);
+            }
+        }
+        return Integer.parseInt(index);
+    }
+
+    /**
+     * Suggests slot names, full ranges and wildcards for the part of the pattern after the last <code>+</code>.
+     */
+    public static CompletableFuture<Suggestions> suggest(CommandContext<ServerCommandSource> ctx, SuggestionsBuilder builder) {
+        String remaining = builder.getRemaining();
+        int start = remaining.lastIndexOf('+') + 1;
+        boolean quoted = remaining.startsWith("\"");
+        List<String> suggestions = new ArrayList<>(NAMED.keySet());
+        for (Map.Entry<String, int[]> e : NUMBERED.entrySet()) {
+            suggestions.add(e.getKey() + ".0-" + (e.getValue()[1] - 1));
+        }
+        if (start == 0) {
+            for (String group : NUMBERED.keySet()) {
+                suggestions.add("\"" + group + ".*\"");
+            }
+            suggestions.add("\"armor.*\"");
+            suggestions.add("\"weapon.*\"");
+        } else if (quoted) {
+            for (String group : NUMBERED.keySet()) {
+                suggestions.add(group + ".*");
+            }
+            suggestions.add("armor.*");
+            suggestions.add("weapon.*");
+        }
+        return CommandSource.suggestMatching(suggestions, builder.createOffset(builder.getStart() + start));
+    }
+
+    /**
+     * @return the slots of the pattern that the inventory has. A single slot is looked up directly, anything else is intersected with all the items of the inventory.
+     * Named slots that the inventory doesn't list, like the main hand of players, are looked up directly,
+     * unless they hold a stack that another found slot (its hotbar slot) already holds.
+     */
+    public ItemSlots find(ModifyItemCommand.InventoryHandle inventory) {
+        if (single >= 0) {
+            return ItemSlots.singleton(single, inventory.getItem(single));
+        }
+        ItemSlots items = inventory.getItems().retain(slots);
+        for (int slot = named.nextSetBit(0); slot >= 0; slot = named.nextSetBit(slot + 1)) {
+            if (items.contains(slot)) continue;
+            ItemStack stack = inventory.getItem(slot);
+            if (stack != null && !holds(items, stack)) {
+                items.put(slot, stack);
+            }
+        }
+        return items;
+    }
+
+    private static boolean holds(ItemSlots items, ItemStack stack) {
+        for (int slot = items.firstSlot(); slot >= 0; slot = items.nextSlot(slot)) {
+            if (items.get(slot) == stack) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,354 @@
+package com.shinybunny.cmdplus.commands.modifyitem;
+
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.entity.Entity;
+import net.minecraft.inventory.Inventory;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.StringTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.TranslatableText;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.WeakHashMap;
+
+/**
+ * The modifyitem executions of a world that can still be undone, newest last.
+ * <p>
+ * An entry only records what each execution changed: for every written slot, the old values of the top level nbt keys that were changed or removed,
+ * and the names of the keys that were added. Only slots whose stack was removed keep the whole old stack.
+ * The journal holds at most {@link #getMemoryLimit()} bytes (as estimated from the recorded nbt), and drops the oldest entries past that.
+ */
+public class UndoJournal {
+
+    private static final Map<ServerWorld, UndoJournal> JOURNALS = new WeakHashMap<>();
+
+    private static long memoryLimit = Long.getLong("cmdplus.undoMemoryLimit",4L * 1024 * 1024);
+
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private long size;
+
+    public static UndoJournal get(ServerWorld world) {
+        return JOURNALS.computeIfAbsent(world,w->new UndoJournal());
+    }
+
+    /**
+     * @return the estimated amount of bytes the journal of each world may hold. 0 disables undo.
+     */
+    public static long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public static void setMemoryLimit(long bytes) {
+        memoryLimit = bytes;
+        for (UndoJournal journal : JOURNALS.values()) {
+            journal.evict();
+        }
+    }
+
+    /**
+     * Adds the finished entry of an execution to the journal of the world it ran in,
+     * and tells the source if the entry was too large to be kept.
+     */
+    public static void commit(ModifyExecuteContext ctx, Entry entry) {
+        if (entry.isEmpty() && !entry.overflowed) return;
+        if (!get(ctx.getCmdCtx().getSource().getWorld()).add(entry)) {
+            ctx.getCmdCtx().getSource().sendFeedback(new TranslatableText("commands.modifyitem.undo.too_large"),false);
+        }
+    }
+
+    /**
+     * Adds a finished entry, dropping the oldest entries if the journal grew too large.
+     * @return whether the entry was added. Entries that are larger than the whole limit on their own are not.
+     */
+    public boolean add(Entry entry) {
+        if (entry.overflowed || entry.size > memoryLimit) return false;
+        if (entry.isEmpty()) return true;
+        entries.addLast(entry);
+        size += entry.size;
+        evict();
+        return true;
+    }
+
+    /**
+     * @return the newest entry, removed from the journal, or null if there are none
+     */
+    public Entry pop() {
+        Entry entry = entries.pollLast();
+        if (entry != null) {
+            size -= entry.size;
+        }
+        return entry;
+    }
+
+    /**
+     * @return up to the given amount of the newest entries, newest first, without removing them
+     */
+    public List<Entry> peek(int count) {
+        List<Entry> latest = new ArrayList<>(Math.min(count,entries.size()));
+        Iterator<Entry> it = entries.descendingIterator();
+        while (latest.size() < count && it.hasNext()) {
+            latest.add(it.next());
+        }
+        return latest;
+    }
+
+    private void evict() {
+        while (size > memoryLimit && !entries.isEmpty()) {
+            size -= entries.pollFirst().size;
+        }
+    }
+
+    /**
+     * The slot changes of one execution.
+     */
+    public static class Entry {
+        private static final int DELTA_OVERHEAD = 48;
+
+        private final List<Target> targets = new ArrayList<>();
+        private final Map<ModifyItemCommand.InventoryHandle, Integer> targetIndices = new IdentityHashMap<>();
+        private final List<Delta> deltas = new ArrayList<>();
+        private long size;
+        /**
+         * Set once the entry grows past the memory limit, after which nothing more is recorded
+         */
+        private boolean overflowed;
+
+        /**
+         * Records that the stack in the slot was replaced. Inventories that can't be found again later are not recorded.
+         * @param original the stack that was in the slot, which must not be modified afterwards
+         */
+        public void record(ModifyItemCommand.InventoryHandle inventory, int slot, ItemStack original, ItemStack written) {
+            if (overflowed || memoryLimit <= 0) return;
+            Integer target = targetIndices.get(inventory);
+            if (target == null) {
+                Target t = inventory.getUndoTarget();
+                if (t == null) return;
+                target = targets.size();
+                targets.add(t);
+                targetIndices.put(inventory,target);
+            }
+            Delta delta = Delta.of(target,slot,original,written);
+            deltas.add(delta);
+            size += DELTA_OVERHEAD + estimateSize(delta.oldValues) + (delta.addedKeys == null ? 0 : delta.addedKeys.length * 40);
+            if (size > memoryLimit) {
+                overflowed = true;
+                targets.clear();
+                targetIndices.clear();
+                deltas.clear();
+            }
+        }
+
+        public boolean isEmpty() {
+            return deltas.isEmpty();
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Restores the recorded slots, newest change first. Slots that were changed again since are left alone.
+         * @return the amount of restored slots
+         */
+        public int undo(ServerWorld world) {
+            return restore(world,true);
+        }
+
+        /**
+         * Counts the slots {@link #undo(ServerWorld)} would restore, without changing anything.
+         * Slots that a newer entry would restore first count as changed since, so this may be lower than what undoing several entries at once restores.
+         */
+        public int countRestorable(ServerWorld world) {
+            return restore(world,false);
+        }
+
+        private int restore(ServerWorld world, boolean write) {
+            ModifyItemCommand.InventoryHandle[] handles = new ModifyItemCommand.InventoryHandle[targets.size()];
+            boolean[] resolved = new boolean[targets.size()];
+            int restored = 0;
+            for (int i = deltas.size() - 1; i >= 0; i--) {
+                Delta delta = deltas.get(i);
+                if (!resolved[delta.target]) {
+                    handles[delta.target] = targets.get(delta.target).resolve(world);
+                    resolved[delta.target] = true;
+                }
+                ModifyItemCommand.InventoryHandle handle = handles[delta.target];
+                if (handle == null || !handle.isValid()) continue;
+                ItemStack current = handle.getItem(delta.slot);
+                if (current == null || hash(current) != delta.writtenHash) continue;
+                if (write) {
+                    handle.setItem(delta.slot,delta.restore(current));
+                }
+                restored++;
+            }
+            for (ModifyItemCommand.InventoryHandle handle : handles) {
+                if (handle != null && write) {
+                    handle.flush();
+                }
+            }
+            return restored;
+        }
+
+        public int getSlotCount() {
+            return deltas.size();
+        }
+    }
+
+    private static class Delta {
+        private final int target;
+        private final int slot;
+        /**
+         * A hash of the stack that was written, to detect slots that changed again after the execution
+         */
+        private final int writtenHash;
+        /**
+         * The old values of the top level keys that were changed or removed, or the whole old tag if the stack itself was replaced
+         */
+        private final CompoundTag oldValues;
+        private final String[] addedKeys;
+        /**
+         * The old item, only kept if the stack was removed or its item changed
+         */
+        private final Item oldItem;
+        private final int oldCount;
+
+        private Delta(int target, int slot, int writtenHash, CompoundTag oldValues, String[] addedKeys, Item oldItem, int oldCount) {
+            this.target = target;
+            this.slot = slot;
+            this.writtenHash = writtenHash;
+            this.oldValues = oldValues;
+            this.addedKeys = addedKeys;
+            this.oldItem = oldItem;
+            this.oldCount = oldCount;
+        }
+
+        private static Delta of(int target, int slot, ItemStack original, ItemStack written) {
+            CompoundTag oldTag = original.getTag();
+            if (written.isEmpty() || written.getItem() != original.getItem() || written.getCount() != original.getCount()) {
+                return new Delta(target,slot,hash(written),oldTag,null,original.getItem(),original.getCount());
+            }
+            CompoundTag newTag = written.getTag();
+            CompoundTag oldValues = null;
+            if (oldTag != null) {
+                for (String key : oldTag.getKeys()) {
+                    Tag value = oldTag.get(key);
+                    if (newTag == null || !value.equals(newTag.get(key))) {
+                        if (oldValues == null) {
+                            oldValues = new CompoundTag();
+                        }
+                        oldValues.put(key,value);
+                    }
+                }
+            }
+            List<String> added = new ArrayList<>();
+            if (newTag != null) {
+                for (String key : newTag.getKeys()) {
+                    if (oldTag == null || !oldTag.contains(key)) {
+                        added.add(key);
+                    }
+                }
+            }
+            return new Delta(target,slot,hash(written),oldValues,added.isEmpty() ? null : added.toArray(new String[0]),null,0);
+        }
+
+        private ItemStack restore(ItemStack current) {
+            if (oldItem != null) {
+                ItemStack stack = new ItemStack(oldItem,oldCount);
+                stack.setTag(oldValues);
+                return stack;
+            }
+            ItemStack stack = current.copy();
+            if (addedKeys != null) {
+                for (String key : addedKeys) {
+                    stack.removeSubTag(key);
+                }
+            }
+            if (oldValues != null) {
+                CompoundTag tag = stack.getOrCreateTag();
+                for (String key : oldValues.getKeys()) {
+                    tag.put(key,oldValues.get(key));
+                }
+            }
+            if (stack.getTag() != null && stack.getTag().isEmpty()) {
+                stack.setTag(null);
+            }
+            return stack;
+        }
+    }
+
+    /**
+     * An inventory that can be looked up again when undoing.
+     */
+    public interface Target {
+
+        static Target block(BlockPos pos) {
+            long packed = pos.asLong();
+            return world->{
+                BlockEntity te = world.getBlockEntity(BlockPos.fromLong(packed));
+                return te instanceof Inventory ? ModifyItemCommand.InventoryHandle.normal((Inventory) te) : null;
+            };
+        }
+
+        static Target entity(UUID uuid) {
+            return world->{
+                for (ServerWorld w : world.getServer().getWorlds()) {
+                    Entity entity = w.getEntity(uuid);
+                    if (entity != null) {
+                        return ModifyItemCommand.InventoryHandle.entity(entity);
+                    }
+                }
+                return null;
+            };
+        }
+
+        /**
+         * @return the inventory, or null if it no longer exists
+         */
+        ModifyItemCommand.InventoryHandle resolve(ServerWorld world);
+    }
+
+    private static int hash(ItemStack stack) {
+        if (stack.isEmpty()) return 0;
+        return 31 * (31 * stack.getItem().hashCode() + stack.getCount()) + Objects.hashCode(stack.getTag());
+    }
+
+    /**
+     * A rough estimate of the memory a tag takes
+     */
+    private static long estimateSize(Tag tag) {
+        if (tag == null) return 0;
+        if (tag instanceof CompoundTag) {
+            CompoundTag compound = (CompoundTag) tag;
+            long size = 48;
+            for (String key : compound.getKeys()) {
+                size += 40 + key.length() * 2 + estimateSize(compound.get(key));
+            }
+            return size;
+        }
+        if (tag instanceof ListTag) {
+            ListTag list = (ListTag) tag;
+            long size = 40;
+            for (int i = 0; i < list.size(); i++) {
+                size += 8 + estimateSize(list.method_10534(i));
+            }
+            return size;
+        }
+        if (tag instanceof StringTag) {
+            return 56 + tag.asString().length() * 2;
+        }
+        return 16;
+    }
+}
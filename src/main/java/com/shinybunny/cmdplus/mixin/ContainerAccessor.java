@@ -0,0 +1,18 @@
+package com.shinybunny.cmdplus.mixin;
+
+import net.minecraft.container.Container;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.DefaultedList;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/**
+ * Exposes the stacks a container last sent to its listeners, which {@link Container#sendContentUpdates()} compares the slots against.
+ */
+@Mixin(Container.class)
+public interface ContainerAccessor {
+
+    @Accessor("trackedStacks")
+    DefaultedList<ItemStack> getTrackedStacks();
+
+}
@@ -0,0 +1,18 @@
+package com.shinybunny.cmdplus.mixin;
+
+import net.minecraft.entity.passive.HorseBaseEntity;
+import net.minecraft.inventory.BasicInventory;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/**
+ * Exposes the live inventory of horses, donkeys, mules and llamas.
+ * Slot 0 holds the saddle, slot 1 the armor (or carpet), and the chest slots of an {@link net.minecraft.entity.passive.AbstractDonkeyEntity} start at slot 2.
+ */
+@Mixin(HorseBaseEntity.class)
+public interface HorseBaseEntityAccessor {
+
+    @Accessor("items")
+    BasicInventory getItems();
+
+}
@@ -0,0 +1,17 @@
+package com.shinybunny.cmdplus.mixin;
+
+import net.minecraft.block.entity.LootableContainerBlockEntity;
+import net.minecraft.util.Identifier;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/**
+ * Exposes the loot table of containers whose loot wasn't generated yet. Any read of their slots generates it.
+ */
+@Mixin(LootableContainerBlockEntity.class)
+public interface LootableContainerBlockEntityAccessor {
+
+    @Accessor("lootTableId")
+    Identifier getLootTableId();
+
+}
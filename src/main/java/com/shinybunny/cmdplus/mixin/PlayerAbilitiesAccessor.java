@@ -0,0 +1,19 @@
+package com.shinybunny.cmdplus.mixin;
+
+import net.minecraft.entity.player.PlayerAbilities;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/**
+ * The speed setters of {@link PlayerAbilities} only exist on the client.
+ */
+@Mixin(PlayerAbilities.class)
+public interface PlayerAbilitiesAccessor {
+
+    @Accessor("flySpeed")
+    void setFlySpeed(float flySpeed);
+
+    @Accessor("walkSpeed")
+    void setWalkSpeed(float walkSpeed);
+
+}
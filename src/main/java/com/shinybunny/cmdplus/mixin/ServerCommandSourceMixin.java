@@ -0,0 +1,53 @@
+package com.shinybunny.cmdplus.mixin;
+
+import com.shinybunny.cmdplus.commands.modifyitem.ActionCommand;
+import com.shinybunny.cmdplus.commands.modifyitem.ModifyContext;
+import com.shinybunny.cmdplus.commands.modifyitem.ModifyOptions;
+import com.shinybunny.cmdplus.commands.modifyitem.ModifySource;
+import net.minecraft.server.command.ServerCommandSource;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+
+/**
+ * Lets command sources carry the state of a modifyitem execution, see {@link ModifySource}.
+ */
+@Mixin(ServerCommandSource.class)
+public abstract class ServerCommandSourceMixin implements ModifySource {
+
+    @Unique
+    private ModifyOptions modifyOptions;
+    @Unique
+    private ModifyContext modifySelection;
+    @Unique
+    private ActionCommand.Chain pendingChain;
+
+    @Override
+    public ModifyOptions getModifyOptions() {
+        return modifyOptions;
+    }
+
+    @Override
+    public void setModifyOptions(ModifyOptions options) {
+        this.modifyOptions = options;
+    }
+
+    @Override
+    public ModifyContext getModifySelection() {
+        return modifySelection;
+    }
+
+    @Override
+    public void setModifySelection(ModifyContext selection) {
+        this.modifySelection = selection;
+    }
+
+    @Override
+    public ActionCommand.Chain getPendingChain() {
+        return pendingChain;
+    }
+
+    @Override
+    public void setPendingChain(ActionCommand.Chain chain) {
+        this.pendingChain = chain;
+    }
+}